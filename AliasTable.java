@@ -0,0 +1,82 @@
+/** A Walker/Vose alias table over the successors of a window.
+ *  Samples a successor with one random number and O(1) work, whatever the number of successors.
+ *  The table is built from the integer counts of the successors, as CompactLanguageModel keeps them,
+ *  so the probability of every successor is exactly count / total (up to the precision of a double). */
+public class AliasTable {
+
+    // The characters of the table
+    private final char[] chars;
+
+    // The probability of keeping column i, rather than taking its alias
+    private final double[] probs;
+
+    // The alias of each column
+    private final int[] aliases;
+
+    /** Constructs an alias table of the successors in [from, to) of the given arrays,
+     *  with the given characters and counts. */
+    public AliasTable(char[] successors, int[] counts, int from, int to) {
+        int n = to - from;
+        long total = 0;
+        for (int e = from; e < to; e++) {
+            total += counts[e];
+        }
+        chars = new char[n];
+        probs = new double[n];
+        aliases = new int[n];
+
+        // Scales the counts by n, so a column is full when its scaled count equals total.
+        long[] scaled = new long[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallSize = 0;
+        int largeSize = 0;
+        for (int i = 0; i < n; i++) {
+            chars[i] = successors[from + i];
+            scaled[i] = (long) counts[from + i] * n;
+            if (scaled[i] < total) {
+                small[smallSize++] = i;
+            } else {
+                large[largeSize++] = i;
+            }
+        }
+        while (smallSize > 0 && largeSize > 0) {
+            int s = small[--smallSize];
+            int l = large[--largeSize];
+            probs[s] = (double) scaled[s] / total;
+            aliases[s] = l;
+            scaled[l] -= total - scaled[s];
+            if (scaled[l] < total) {
+                small[smallSize++] = l;
+            } else {
+                large[largeSize++] = l;
+            }
+        }
+        // Whatever is left is full (exactly, since the arithmetic is on integers)
+        while (largeSize > 0) {
+            int l = large[--largeSize];
+            probs[l] = 1;
+            aliases[l] = l;
+        }
+        while (smallSize > 0) {
+            int s = small[--smallSize];
+            probs[s] = 1;
+            aliases[s] = s;
+        }
+    }
+
+    /** Returns the number of successors in this table. */
+    public int getSize() {
+        return chars.length;
+    }
+
+    /** Returns a random successor, given a random number r in [0,1). */
+    public char sample(double r) {
+        double x = r * chars.length;
+        int i = (int) x;
+        if (i == chars.length) {
+            i--;
+        }
+        return (x - i < probs[i]) ? chars[i] : chars[aliases[i]];
+    }
+}
@@ -0,0 +1,69 @@
+/** The scores of one text under several models, and the model that the text most likely came from:
+ *  the one with the lowest cross-entropy (the highest log-likelihood per scored character, so
+ *  models of different window lengths, which score different numbers of characters, compare fairly). */
+public class Attribution {
+
+    // The names of the models, and the score of the text under each of them
+    private final String[] names;
+    private final TextScore[] scores;
+
+    // The index of the best model
+    private final int best;
+
+    /** Constructs the attribution of a text with the given scores under the models of the given names. */
+    public Attribution(String[] names, TextScore[] scores) {
+        if (names.length != scores.length || names.length == 0) {
+            throw new IllegalArgumentException("expected one score per model, and at least one model");
+        }
+        this.names = names.clone();
+        this.scores = scores.clone();
+        int b = 0;
+        for (int i = 1; i < scores.length; i++) {
+            if (scores[i].getCrossEntropy() < scores[b].getCrossEntropy()) b = i;
+        }
+        best = b;
+    }
+
+    /** Returns the number of models. */
+    public int getSize() {
+        return names.length;
+    }
+
+    /** Returns the name of the model with the given index. */
+    public String getName(int index) {
+        return names[index];
+    }
+
+    /** Returns the score of the text under the model with the given index. */
+    public TextScore getScore(int index) {
+        return scores[index];
+    }
+
+    /** Returns the score of the text under the model with the given name. */
+    public TextScore getScore(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return scores[i];
+        }
+        throw new IllegalArgumentException("no model named " + name);
+    }
+
+    /** Returns the index of the model that the text most likely came from. */
+    public int getBestIndex() {
+        return best;
+    }
+
+    /** Returns the name of the model that the text most likely came from. */
+    public String getBest() {
+        return names[best];
+    }
+
+    /** Returns a string with the best model, and the score under each model. */
+    public String toString() {
+        StringBuilder str = new StringBuilder(names[best]).append(" (");
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) str.append(", ");
+            str.append(names[i]).append(' ').append(scores[i]);
+        }
+        return str.append(')').toString();
+    }
+}
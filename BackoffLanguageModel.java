@@ -0,0 +1,62 @@
+/** A language model that learns all the window lengths 1..maxWindowLength in a single pass
+ *  over the corpus, and backs off to shorter windows when generating.
+ *  The windows of all the lengths are kept in one ContextTrie, where each window shares its
+ *  storage with its suffixes, and each character of the corpus is counted once, after the longest
+ *  window that precedes it (the counts of the shorter windows are derived from it when the corpus
+ *  is read). When the current window was never seen, generate uses the longest suffix of the
+ *  window that was seen, down to the frequencies of single characters, so the generated text
+ *  always reaches the requested length.
+ *  <p>
+ *  The single pass saves reading and hashing the corpus once per window length, but not the
+ *  entries: every (window, character) pair of every length still gets its own entry and count,
+ *  and the longer the windows, the more of these pairs there are. So the gain over one
+ *  CompactLanguageModel per length is largest with short windows, where reading the corpus is
+ *  most of the work (4-5x for the lengths 1..3 in BackoffTrainBenchmark of the jmh module), and
+ *  shrinks as the mostly unique pairs of the longest windows take over (1.3-1.7x for 1..7). */
+public class BackoffLanguageModel {
+
+    // The windows of all the lengths 0..maxWindowLength, and their successors.
+    ContextTrie trie;
+
+    // The longest window length used in this model.
+    int maxWindowLength;
+
+    /** Constructs a model with the given maximal window length and a given seed value. */
+    public BackoffLanguageModel(int maxWindowLength, int seed) {
+        this.maxWindowLength = maxWindowLength;
+        trie = new ContextTrie(maxWindowLength, seed);
+    }
+
+    /** Constructs a model with the given maximal window length. */
+    public BackoffLanguageModel(int maxWindowLength) {
+        this.maxWindowLength = maxWindowLength;
+        trie = new ContextTrie(maxWindowLength);
+    }
+
+    /** Returns the trie of the windows of this model. */
+    public ContextTrie getTrie() {
+        return trie;
+    }
+
+    /** Returns the number of times that the given character followed the given window
+     *  (of any length up to maxWindowLength; the empty window counts every character). */
+    public int getCount(String window, char c) {
+        return trie.getCount(window, c);
+    }
+
+    /** Builds the models of all the window lengths from the text in the given file (the corpus). */
+    public void train(String fileName) {
+        trie.train(fileName);
+    }
+
+    /**
+     * Generates a random text, based on the probabilities that were learned during training.
+     * Uses the longest window (up to maxWindowLength) that ends the text and was seen in training.
+     * @param initialText - text to start with.
+     * @param textLength - the total length of the text to generate
+     * @return the generated text
+     */
+    public String generate(String initialText, int textLength) {
+        return trie.generateWithBackoff(initialText, textLength);
+    }
+}
@@ -0,0 +1,127 @@
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Generates many independent texts from one shared, frozen model, using several threads.
+ *  Every request draws from its own java.util.Random, seeded with the seed of the request, so
+ *  the text of a request depends only on the request: it is the text that a LanguageModel that
+ *  was constructed with that seed generates, no matter how the requests are scheduled. */
+public class BatchGenerator {
+
+    /** Receives the text of a request, when it is ready. */
+    public interface ResultHandler {
+        /** Called with the index of a request in the batch, and the text that was generated for it. */
+        void accept(int index, String text);
+    }
+
+    // The model that all the requests are generated from
+    private final CompiledModel model;
+
+    // The number of threads that generate texts
+    private final int threads;
+
+    /** Constructs a batch generator over the given frozen model, that uses the given number of threads. */
+    public BatchGenerator(CompiledModel model, int threads) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be positive: " + threads);
+        this.model = model;
+        this.threads = threads;
+    }
+
+    /** Returns the text of the given request. */
+    public String generate(GenerationRequest request) {
+        return model.generate(request.getInitialText(), request.getTextLength(), new Random(request.getSeed()));
+    }
+
+    /** Generates the texts of all the given requests, in a fork-join pool, and returns them:
+     *  texts[i] is the text of requests[i]. */
+    public String[] generate(GenerationRequest[] requests) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return generate(requests, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Generates the texts of all the given requests in the given pool, and returns them in the
+     *  order of the requests. Lets a caller that runs many batches keep one pool for all of them. */
+    public String[] generate(GenerationRequest[] requests, ForkJoinPool pool) {
+        String[] texts = new String[requests.length];
+        if (requests.length > 0) {
+            pool.invoke(new BatchTask(requests, texts, 0, requests.length));
+        }
+        return texts;
+    }
+
+    /** Generates the texts of all the given requests, and passes each text to the given handler
+     *  as soon as it is ready, so the texts arrive in the order in which they are completed.
+     *  The handler is called by the calling thread, one text at a time. At most twice as many
+     *  requests as threads are in progress or waiting for the handler at any time, so a large
+     *  batch does not hold all of its texts in memory. Returns when all the texts were handled. */
+    public void generate(GenerationRequest[] requests, ResultHandler handler) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ExecutorCompletionService<Result> completed = new ExecutorCompletionService<Result>(pool);
+        int limit = 2 * threads;
+        int submitted = 0;
+        try {
+            for (int handled = 0; handled < requests.length; handled++) {
+                while (submitted < requests.length && submitted - handled < limit) {
+                    final int index = submitted++;
+                    completed.submit(() -> new Result(index, generate(requests[index])));
+                }
+                Result result = completed.take().get();
+                handler.accept(result.index, result.text);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while generating a batch", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("could not generate a text of the batch", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // The text of a request, and the index of the request in its batch
+    private static class Result {
+        final int index;
+        final String text;
+
+        Result(int index, String text) {
+            this.index = index;
+            this.text = text;
+        }
+    }
+
+    // Generates the texts of the requests in [lo, hi), splitting the range in halves.
+    private class BatchTask extends RecursiveAction {
+        // Declared for the Serializable RecursiveAction only: GenerationRequest is not
+        // Serializable, so a BatchTask could not be written out in any case.
+        private static final long serialVersionUID = 1L;
+
+        private final GenerationRequest[] requests;
+        private final String[] texts;
+        private final int lo;
+        private final int hi;
+
+        BatchTask(GenerationRequest[] requests, String[] texts, int lo, int hi) {
+            this.requests = requests;
+            this.texts = texts;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo == 1) {
+                texts[lo] = generate(requests[lo]);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new BatchTask(requests, texts, lo, mid), new BatchTask(requests, texts, mid, hi));
+        }
+    }
+}
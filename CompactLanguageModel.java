@@ -0,0 +1,484 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** A language model that keeps its windows in a ContextTable instead of a HashMap of strings.
+ *  Every window gets an id in the table, and the successors of all the windows are kept in flat
+ *  arrays that are indexed by these ids: a character and a count per successor, and a total per
+ *  window, with no object per window or per successor, and no stored probabilities. Once trained,
+ *  the successors of every window are packed next to each other, in the order of a List.
+ *  Trains, generates and prints exactly like LanguageModel (a draw accumulates the probabilities
+ *  like calculateProbabilities, see LanguageModel.indexOfCumulative), except that toString()
+ *  lists the windows in the order in which they were first seen. */
+public class CompactLanguageModel {
+
+    // The windows of this model.
+    ContextTable contexts;
+
+    // The successors of each window, by window id. While training, the successors of window id
+    // are the entries in [heads[id], heads[id] + sizes[id]), oldest first, in a block whose capacity
+    // is the smallest power of 2 that holds them: a window whose block is full moves to a new block
+    // of twice the capacity. Once packed (see pack), the successors of window id are the entries in
+    // [heads[id], heads[id + 1]), in the order of a List (newest first), and sizes is null.
+    int[] heads;
+    int[] sizes;
+
+    // The character and the count of each entry
+    char[] entryChars;
+    int[] entryCounts;
+
+    // The number of entries in use, including the blocks that windows moved out of
+    int entryCount;
+
+    // The sum of the counts of the successors of each window, by window id
+    int[] totals;
+
+    // In count sampling mode, once packed: the cumulative count of each entry, from the first
+    // entry of its window. Otherwise null.
+    int[] cumulativeCounts;
+
+    // The alias table of each window, by window id, or null if alias sampling is off.
+    AliasTable[] aliases;
+
+    // If true, characters are sampled by their integer counts instead of their probabilities.
+    boolean countSampling;
+
+    // The window length used in this model.
+    int windowLength;
+
+    // The random number generator used by this model.
+    private Random randomGenerator;
+
+    /** Constructs a language model with the given window length and a given
+     * seed value. Generating texts from this model multiple times with the
+     * same seed value will produce the same random texts. Good for debugging. */
+    public CompactLanguageModel(int windowLength, int seed) {
+        this(windowLength, new Random(seed));
+    }
+
+    /** Constructs a language model with the given window length.
+     * Generating texts from this model multiple times will produce
+     * different random texts. Good for production. */
+    public CompactLanguageModel(int windowLength) {
+        this(windowLength, new Random());
+    }
+
+    private CompactLanguageModel(int windowLength, Random randomGenerator) {
+        this.windowLength = windowLength;
+        this.randomGenerator = randomGenerator;
+        contexts = new ContextTable(windowLength);
+        heads = new int[ContextTable.INITIAL_CAPACITY];
+        sizes = new int[ContextTable.INITIAL_CAPACITY];
+        totals = new int[ContextTable.INITIAL_CAPACITY];
+        entryChars = new char[ContextTable.INITIAL_CAPACITY];
+        entryCounts = new int[ContextTable.INITIAL_CAPACITY];
+    }
+
+    /** Returns the number of windows in this model. */
+    public int getSize() {
+        return contexts.getSize();
+    }
+
+    /** Returns a copy of the list of the window with the given id, with the probabilities that
+     *  calculateProbabilities computes. The model keeps its successors in flat arrays, not in
+     *  List objects, so a change to the copy is not seen by the model. */
+    public List getList(int id) {
+        pack();
+        List list = new List();
+        // New characters are added to the beginning of a list, so the entries are added from the last
+        for (int e = heads[id + 1] - 1; e >= heads[id]; e--) {
+            list.addFirst(entryChars[e]);
+            list.getFirst().count = entryCounts[e];
+        }
+        double cumulativeProb = 0;
+        ListIterator it = list.listIterator(0);
+        while (it.hasNext()) {
+            CharData cd = it.next();
+            cd.p = (double) cd.count / totals[id];
+            cumulativeProb += cd.p;
+            cd.cp = cumulativeProb;
+        }
+        return list;
+    }
+
+    /** Turns alias sampling on or off. When it is on, the distribution of every window is
+     *  compiled into an AliasTable, and each generated character costs one random draw and O(1)
+     *  work. When it is off (the default), characters are drawn by scanning the cumulative
+     *  probabilities, which produces the same texts as LanguageModel for the same seed.
+     *  Should be called after training. */
+    public void setAliasSampling(boolean on) {
+        if (!on) {
+            aliases = null;
+            return;
+        }
+        pack();
+        aliases = new AliasTable[contexts.getSize()];
+        for (int id = 0; id < aliases.length; id++) {
+            aliases[id] = new AliasTable(entryChars, entryCounts, heads[id], heads[id + 1]);
+        }
+    }
+
+    /** Turns count sampling on or off. When it is on, the cumulative counts of every window are
+     *  stored once training is finished, and generating draws nextInt(total) and binary-searches
+     *  them, so successors are drawn exactly in proportion to their counts. The random numbers
+     *  differ from those of the default mode, so the generated texts differ too. */
+    public void setCountSampling(boolean on) {
+        countSampling = on;
+        cumulativeCounts = null;
+        if (on && sizes == null) {
+            accumulateCounts();
+        }
+    }
+
+    /** Returns the probability that the given character follows the given window,
+     *  or 0 if the window or the character were never seen. */
+    public double getProbability(String window, char c) {
+        if (window.length() != windowLength) return 0;
+        WindowKey key = new WindowKey(windowLength);
+        for (int i = 0; i < windowLength; i++) {
+            key.add(window.charAt(i));
+        }
+        int id = contexts.find(key);
+        if (id == -1) return 0;
+        pack();
+        for (int e = heads[id]; e < heads[id + 1]; e++) {
+            if (entryChars[e] == c) return (double) entryCounts[e] / totals[id];
+        }
+        return 0;
+    }
+
+    /** Builds a language model from the text in the given file (the corpus). */
+    public void train(String fileName) {
+        CorpusReader reader = new CorpusReader(fileName);
+        count(reader, new WindowKey(windowLength));
+        reader.close();
+        finishTraining();
+    }
+
+    /** Builds a language model from the text in the given file (the corpus), using the given
+     *  number of threads. The file is split into byte ranges that start on character boundaries.
+     *  Each range is counted into a private model, starting from the windowLength characters that
+     *  precede it, and the private models are merged in a fork-join reduction. The result is
+     *  identical to train(fileName), including the order of the windows and of their lists. */
+    public void trainParallel(String fileName, int threads) {
+        long[] bounds = ShardedCorpus.split(fileName, threads);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        CompactLanguageModel merged;
+        try {
+            merged = pool.invoke(new TrainTask(fileName, bounds, 0, bounds.length - 1));
+        } finally {
+            pool.shutdown();
+        }
+        contexts = merged.contexts;
+        heads = merged.heads;
+        sizes = merged.sizes;
+        entryChars = merged.entryChars;
+        entryCounts = merged.entryCounts;
+        entryCount = merged.entryCount;
+        totals = merged.totals;
+        finishTraining();
+    }
+
+    /** Returns an immutable copy of this trained model, that can generate texts from many threads
+     *  at once (see CompiledModel). Training this model further does not change the copy. */
+    public CompiledModel freeze() {
+        return new CompiledModel(this);
+    }
+
+    // Counts the characters of the given reader, continuing from the given window.
+    void count(CorpusReader reader, WindowKey window) {
+        char[] buffer = new char[LanguageModel.BUFFER_SIZE];
+        int n;
+
+        // Processes the entire text, one buffer at a time
+        while ((n = reader.read(buffer)) > 0) {
+            for (int i = 0; i < n; i++) {
+                char c = buffer[i];
+
+                // The first windowLength characters only form the first window.
+                if (!window.isFull()) {
+                    window.add(c);
+                    continue;
+                }
+                update(window, c);
+                window.add(c);
+            }
+        }
+    }
+
+    // Called when all the characters have been counted.
+    void finishTraining() {
+        aliases = null;
+        pack();
+    }
+
+    // Packs the successors of every window next to each other, in window id order, and trims the
+    // arrays. Does nothing if the model is already packed.
+    void pack() {
+        if (sizes == null) return;
+        int size = contexts.getSize();
+        int entries = 0;
+        for (int id = 0; id < size; id++) {
+            entries += sizes[id];
+        }
+        int[] offsets = new int[size + 1];
+        char[] chars = new char[entries];
+        int[] counts = new int[entries];
+        int k = 0;
+        for (int id = 0; id < size; id++) {
+            offsets[id] = k;
+            for (int e = heads[id] + sizes[id] - 1; e >= heads[id]; e--) {
+                chars[k] = entryChars[e];
+                counts[k] = entryCounts[e];
+                k++;
+            }
+        }
+        offsets[size] = k;
+        heads = offsets;
+        sizes = null;
+        entryChars = chars;
+        entryCounts = counts;
+        entryCount = k;
+        totals = Arrays.copyOf(totals, size);
+        contexts.trim();
+        if (countSampling) {
+            accumulateCounts();
+        }
+    }
+
+    // Computes the cumulative counts of the entries of every window. The model must be packed.
+    private void accumulateCounts() {
+        cumulativeCounts = new int[heads[contexts.getSize()]];
+        for (int id = 0; id < contexts.getSize(); id++) {
+            int cumulative = 0;
+            for (int e = heads[id]; e < heads[id + 1]; e++) {
+                cumulative += entryCounts[e];
+                cumulativeCounts[e] = cumulative;
+            }
+        }
+    }
+
+    // Moves the packed successors of every window back into blocks, so that they can be updated.
+    private void unpack() {
+        int size = contexts.getSize();
+        int[] starts = new int[totals.length];
+        sizes = new int[totals.length];
+        int entries = 0;
+        for (int id = 0; id < size; id++) {
+            starts[id] = entries;
+            sizes[id] = heads[id + 1] - heads[id];
+            entries += capacityOf(sizes[id]);
+        }
+        char[] chars = new char[Math.max(entries, ContextTable.INITIAL_CAPACITY)];
+        int[] counts = new int[chars.length];
+        for (int id = 0; id < size; id++) {
+            int k = starts[id];
+            for (int e = heads[id + 1] - 1; e >= heads[id]; e--) {
+                chars[k] = entryChars[e];
+                counts[k] = entryCounts[e];
+                k++;
+            }
+        }
+        heads = starts;
+        entryChars = chars;
+        entryCounts = counts;
+        entryCount = entries;
+        cumulativeCounts = null;
+    }
+
+    // Returns the capacity of the block of a window with the given number of successors
+    private static int capacityOf(int size) {
+        return (size <= 1) ? 1 : Integer.highestOneBit(size - 1) << 1;
+    }
+
+    // Adds the counts of the given model, that was trained on the text that follows the text
+    // of this model, to this model. Windows and characters that are new to this model are added
+    // in the order in which the other model first saw them, as if this model had kept on reading.
+    void merge(CompactLanguageModel other) {
+        WindowKey window = new WindowKey(windowLength);
+        for (int otherId = 0; otherId < other.contexts.getSize(); otherId++) {
+            window.clear();
+            for (int i = 0; i < windowLength; i++) {
+                window.add(other.contexts.charAt(otherId, i));
+            }
+            // The list is in reverse order of first appearance, so it is traversed from its end.
+            other.pack();
+            for (int e = other.heads[otherId + 1] - 1; e >= other.heads[otherId]; e--) {
+                update(window, other.entryChars[e], other.entryCounts[e]);
+            }
+        }
+    }
+
+    // Trains private models on the ranges [lo, hi) of the given bounds, and merges them.
+    private class TrainTask extends RecursiveTask<CompactLanguageModel> {
+        // RecursiveTask is Serializable. A TrainTask would carry its enclosing model with it,
+        // so it is only ever forked within one train call, never written.
+        private static final long serialVersionUID = 1L;
+
+        private final String fileName;
+        private final long[] bounds;
+        private final int lo;
+        private final int hi;
+
+        TrainTask(String fileName, long[] bounds, int lo, int hi) {
+            this.fileName = fileName;
+            this.bounds = bounds;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected CompactLanguageModel compute() {
+            if (hi - lo == 1) {
+                CompactLanguageModel shard = new CompactLanguageModel(windowLength);
+                WindowKey window = ShardedCorpus.windowBefore(fileName, bounds[lo], windowLength);
+                CorpusReader reader = new CorpusReader(fileName, bounds[lo], bounds[hi]);
+                shard.count(reader, window);
+                reader.close();
+                return shard;
+            }
+            int mid = (lo + hi) >>> 1;
+            TrainTask left = new TrainTask(fileName, bounds, lo, mid);
+            TrainTask right = new TrainTask(fileName, bounds, mid, hi);
+            right.fork();
+            CompactLanguageModel merged = left.compute();
+            merged.merge(right.join());
+            return merged;
+        }
+    }
+
+    // Counts the given character as a successor of the given window.
+    void update(WindowKey window, char c) {
+        update(window, c, 1);
+    }
+
+    // Counts the given character as a successor of the given window, n times.
+    void update(WindowKey window, char c, int n) {
+        if (sizes == null) {
+            unpack();
+        }
+        int id = contexts.find(window);
+        if (id == -1) {
+            id = contexts.add(window);
+            if (id == totals.length) {
+                int capacity = Math.max(id * 2, ContextTable.INITIAL_CAPACITY);
+                heads = Arrays.copyOf(heads, capacity);
+                sizes = Arrays.copyOf(sizes, capacity);
+                totals = Arrays.copyOf(totals, capacity);
+            }
+            sizes[id] = 0;
+            totals[id] = 0;
+        }
+        totals[id] += n;
+        int from = heads[id];
+        int size = sizes[id];
+        // The newest successors are at the end of the block
+        for (int e = from + size - 1; e >= from; e--) {
+            if (entryChars[e] == c) {
+                entryCounts[e] += n;
+                return;
+            }
+        }
+        // A new successor: the block is full if its size is 0 or a power of 2
+        if ((size & (size - 1)) == 0) {
+            int capacity = (size == 0) ? 1 : size * 2;
+            if (entryCount + capacity > entryChars.length) {
+                int length = Math.max(entryChars.length * 2, entryCount + capacity);
+                entryChars = Arrays.copyOf(entryChars, length);
+                entryCounts = Arrays.copyOf(entryCounts, length);
+            }
+            System.arraycopy(entryChars, from, entryChars, entryCount, size);
+            System.arraycopy(entryCounts, from, entryCounts, entryCount, size);
+            from = entryCount;
+            heads[id] = from;
+            entryCount += capacity;
+        }
+        entryChars[from + size] = c;
+        entryCounts[from + size] = n;
+        sizes[id] = size + 1;
+    }
+
+    // Returns a random successor of the window with the given id. The model must be packed.
+    char getRandomChar(int id) {
+        if (aliases != null) {
+            return aliases[id].sample(randomGenerator.nextDouble());
+        }
+        if (countSampling) {
+            return entryChars[countEntry(id, randomGenerator.nextInt(totals[id]))];
+        }
+        return entryChars[LanguageModel.indexOfCumulative(entryCounts, heads[id], heads[id + 1], totals[id], randomGenerator.nextDouble())];
+    }
+
+    // Returns the first entry of the window with the given id whose cumulative count is greater
+    // than r, where r is in [0, total of the window). Cumulative counts increase along the window,
+    // so this is a binary search. The model must be packed, in count sampling mode.
+    int countEntry(int id, int r) {
+        int lo = heads[id];
+        int hi = heads[id + 1] - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cumulativeCounts[mid] > r) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Generates a random text, based on the probabilities that were learned during training.
+     * @param initialText - text to start with.
+     * @param textLength - the total length of the text to generate
+     * @return the generated text
+     */
+    public String generate(String initialText, int textLength) {
+        // If the length of the initial text provided is less than windowLength, terminate.
+        if (initialText.length() < windowLength) {
+            return initialText;
+        }
+
+        pack();
+        StringBuilder generatedText = new StringBuilder(initialText);
+        WindowKey window = new WindowKey(windowLength);
+        for (int i = initialText.length() - windowLength; i < initialText.length(); i++) {
+            window.add(initialText.charAt(i));
+        }
+
+        // The process stops when the length of the generated text equals textLength.
+        while (generatedText.length() < textLength) {
+            int id = contexts.find(window);
+
+            // If the current window is not found in the model, stop the process.
+            if (id == -1) {
+                break;
+            }
+
+            char nextChar = getRandomChar(id);
+            generatedText.append(nextChar);
+            window.add(nextChar);
+        }
+
+        return generatedText.toString();
+    }
+
+    /** Returns a string representing the map of this language model. */
+    public String toString() {
+        pack();
+        StringBuilder str = new StringBuilder();
+        for (int id = 0; id < contexts.getSize(); id++) {
+            // The list is printed like List prints it, with the probabilities that
+            // calculateProbabilities would compute
+            str.append(contexts.keyAt(id) + " : (");
+            double cumulativeProb = 0;
+            for (int e = heads[id]; e < heads[id + 1]; e++) {
+                double p = (double) entryCounts[e] / totals[id];
+                cumulativeProb += p;
+                str.append("(" + entryChars[e] + " " + entryCounts[e] + " " + p + " " + cumulativeProb + ")");
+                str.append(e < heads[id + 1] - 1 ? " " : "");
+            }
+            str.append(")\n");
+        }
+        return str.toString();
+    }
+}
@@ -0,0 +1,245 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.random.RandomGenerator;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+/** A trained language model, compiled into a state-transition automaton for fast generation.
+ *  Every window of the model is a state (its id in the model's ContextTable). The successors of
+ *  all the states are kept in flat arrays, and each successor entry also holds the state that
+ *  follows it: the window made of the state's window without its first character, followed by
+ *  the successor. Generating a character is therefore a binary search over the cumulative
+ *  probabilities of the current state and an array read, with no hashing and no allocation.
+ *  With the same seed, a compiled model generates the same text as the model it was compiled from.
+ *  Texts can also be streamed to an Appendable or through an iterator, with long lengths; a stream
+ *  holds only its current state and an output buffer, whatever its length.
+ *  A compiled model is immutable once constructed, so it can be shared by many threads. The methods
+ *  that take a RandomGenerator draw only from the given generator: give each thread (or each call)
+ *  its own generator, seeded by the caller for reproducible texts. The other methods draw from the
+ *  model's own generator, which is shared by all the threads that use them. */
+public class CompiledModel {
+
+    // A copy of the windows of the model, used only to find the state of an initial text
+    private final ContextTable contexts;
+
+    // The window length used in this model.
+    private final int windowLength;
+
+    // The entries of state s are in [offsets[s], offsets[s + 1])
+    private final int[] offsets;
+
+    // Per entry: the successor character, its cumulative probability, and the next state (or -1)
+    private final char[] chars;
+    private final double[] cps;
+    private final int[] nextStates;
+
+    // The number of characters that are buffered before they are written to an Appendable
+    static final int OUTPUT_BUFFER_SIZE = 1 << 13;
+
+    // The random number generator used by the methods that are not given one.
+    private final Random randomGenerator;
+
+    /** Compiles the given trained model, with a given seed value. */
+    public CompiledModel(CompactLanguageModel model, int seed) {
+        this(model, new Random(seed));
+    }
+
+    /** Compiles the given trained model. */
+    public CompiledModel(CompactLanguageModel model) {
+        this(model, new Random());
+    }
+
+    private CompiledModel(CompactLanguageModel model, Random randomGenerator) {
+        this.randomGenerator = randomGenerator;
+        contexts = new ContextTable(model.contexts);
+        windowLength = model.windowLength;
+        int states = contexts.getSize();
+        // The states and the entries are those of the packed model
+        model.pack();
+        offsets = Arrays.copyOf(model.heads, states + 1);
+        chars = Arrays.copyOf(model.entryChars, offsets[states]);
+        cps = new double[offsets[states]];
+        nextStates = new int[offsets[states]];
+
+        WindowKey window = new WindowKey(windowLength);
+        for (int s = 0; s < states; s++) {
+            // The same arithmetic as calculateProbabilities, so the same draws pick the same entries
+            double cumulativeProb = 0;
+            for (int e = offsets[s]; e < offsets[s + 1]; e++) {
+                cumulativeProb += (double) model.entryCounts[e] / model.totals[s];
+                cps[e] = cumulativeProb;
+                window.clear();
+                for (int j = 1; j < windowLength; j++) {
+                    window.add(contexts.charAt(s, j));
+                }
+                window.add(chars[e]);
+                nextStates[e] = contexts.find(window);
+            }
+        }
+    }
+
+    /** Returns the number of states (windows) of this model. */
+    public int getSize() {
+        return offsets.length - 1;
+    }
+
+    /** Returns the state of the window at the end of the given text, or -1 if there is no such state. */
+    public int stateOf(CharSequence text) {
+        if (text.length() < windowLength) return -1;
+        WindowKey window = new WindowKey(windowLength);
+        for (int i = text.length() - windowLength; i < text.length(); i++) {
+            window.add(text.charAt(i));
+        }
+        return contexts.find(window);
+    }
+
+    // Returns the entry of a random successor of the given state, drawn like getRandomChar.
+    int randomEntry(int state, double r) {
+        int lo = offsets[state];
+        int hi = offsets[state + 1] - 1;
+        int last = hi;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cps[mid] > r) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return (cps[lo] > r) ? lo : last;
+    }
+
+    /**
+     * Generates a random text, based on the probabilities that were learned during training.
+     * @param initialText - text to start with.
+     * @param textLength - the total length of the text to generate
+     * @return the generated text
+     */
+    public String generate(String initialText, int textLength) {
+        return generate(initialText, textLength, randomGenerator);
+    }
+
+    /** Generates a random text like generate(initialText, textLength), drawing from the given generator. */
+    public String generate(String initialText, int textLength, RandomGenerator random) {
+        StringBuilder generatedText = new StringBuilder(Math.max(textLength, initialText.length()));
+        generate(initialText, textLength, generatedText, random);
+        return generatedText.toString();
+    }
+
+    /**
+     * Generates a random text, and writes it to the given output as it is generated.
+     * The characters are buffered, and written OUTPUT_BUFFER_SIZE characters at a time.
+     * @param initialText - text to start with (it is written first).
+     * @param textLength - the total length of the text to generate
+     * @param out - where to write the text
+     * @return the number of characters that were written
+     */
+    public long generate(String initialText, long textLength, Appendable out) {
+        return generate(initialText, textLength, out, randomGenerator);
+    }
+
+    /** Writes a random text to the given output like generate(initialText, textLength, out),
+     *  drawing from the given generator. */
+    public long generate(String initialText, long textLength, Appendable out, RandomGenerator random) {
+        PrimitiveIterator.OfInt text = iterator(initialText, textLength, random);
+        char[] buffer = new char[OUTPUT_BUFFER_SIZE];
+        long written = 0;
+        int n = 0;
+        try {
+            while (text.hasNext()) {
+                buffer[n++] = (char) text.nextInt();
+                if (n == buffer.length || !text.hasNext()) {
+                    write(out, buffer, n);
+                    written += n;
+                    n = 0;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return written;
+    }
+
+    /** Returns a lazy iterator over the characters of a random text: first the characters of
+     *  initialText, then generated characters, until the text reaches textLength characters or
+     *  its window is not found in the model. Each call to nextInt generates one character. */
+    public PrimitiveIterator.OfInt iterator(String initialText, long textLength) {
+        return iterator(initialText, textLength, randomGenerator);
+    }
+
+    /** Returns a lazy iterator over the characters of a random text, drawing from the given generator. */
+    public PrimitiveIterator.OfInt iterator(String initialText, long textLength, RandomGenerator random) {
+        return new TextIterator(initialText, textLength, random);
+    }
+
+    /** Returns a lazy, sequential stream of the characters of a random text (see iterator). */
+    public IntStream chars(String initialText, long textLength) {
+        return chars(initialText, textLength, randomGenerator);
+    }
+
+    /** Returns a lazy, sequential stream of the characters of a random text, drawing from the given generator. */
+    public IntStream chars(String initialText, long textLength, RandomGenerator random) {
+        return StreamSupport.intStream(Spliterators.spliteratorUnknownSize(iterator(initialText, textLength, random),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    // Writes the first n characters of the given buffer to the given output.
+    private static void write(Appendable out, char[] buffer, int n) throws IOException {
+        if (out instanceof Writer) {
+            ((Writer) out).write(buffer, 0, n);
+        } else if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(buffer, 0, n);
+        } else {
+            for (int i = 0; i < n; i++) {
+                out.append(buffer[i]);
+            }
+        }
+    }
+
+    // Iterates over the characters of a random text, generating them one at a time.
+    private class TextIterator implements PrimitiveIterator.OfInt {
+        private final String initialText;
+        private final RandomGenerator random;
+        private long remaining;
+        private int initialIndex;
+        private int state;
+
+        TextIterator(String initialText, long textLength, RandomGenerator random) {
+            this.initialText = initialText;
+            this.random = random;
+            // If the length of the initial text provided is less than windowLength, only it is returned.
+            if (initialText.length() < windowLength) {
+                remaining = initialText.length();
+                state = -1;
+            } else {
+                remaining = Math.max(textLength, initialText.length());
+                state = stateOf(initialText);
+            }
+            initialIndex = 0;
+        }
+
+        public boolean hasNext() {
+            return remaining > 0 && (initialIndex < initialText.length() || state != -1);
+        }
+
+        public int nextInt() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            remaining--;
+            if (initialIndex < initialText.length()) {
+                return initialText.charAt(initialIndex++);
+            }
+            int e = randomEntry(state, random.nextDouble());
+            state = nextStates[e];
+            return chars[e];
+        }
+    }
+}
@@ -0,0 +1,265 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Trains one shared model from several text sources at the same time.
+ *  Each source is read by its own thread, with its own window. A thread counts a batch of
+ *  characters into a private CompactLanguageModel, and then adds the batch counts to the shared
+ *  model: a ConcurrentHashMap of windows, where every window keeps the chars and counts of its
+ *  successors in primitive arrays, guarded by the window's own lock. Threads therefore meet only
+ *  once per batch and per window, never wait for a global lock, and box nothing per character.
+ *  Once all the sources are read, the counts are exact, and toModel() turns them into a
+ *  CompactLanguageModel that can generate texts. */
+public class ConcurrentTrainer {
+
+    // The number of characters that a thread counts privately before it adds them to the shared model
+    static final int BATCH_SIZE = 1 << 16;
+
+    // The window length used in this model.
+    private final int windowLength;
+
+    // The successor counters of each window.
+    private final ConcurrentHashMap<String, Successors> counts;
+
+    // The number of characters that were counted.
+    private final LongAdder total;
+
+    /** Constructs an empty shared model with the given window length. */
+    public ConcurrentTrainer(int windowLength) {
+        this.windowLength = windowLength;
+        counts = new ConcurrentHashMap<String, Successors>();
+        total = new LongAdder();
+    }
+
+    /** Reads all the given sources at the same time, one thread per source, and adds
+     *  their counts to this model. Every source is closed once it is read, or once reading it fails.
+     *  Returns when all the sources have been read. If some sources could not be read, throws an
+     *  IllegalStateException whose cause is the failure of the first of them (an IOException, or
+     *  the exception that the source threw), with the failures of the others suppressed. */
+    public void ingest(Reader... sources) {
+        Thread[] threads = new Thread[sources.length];
+        Exception[] errors = new Exception[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(() -> {
+                try (Reader source = sources[index]) {
+                    count(source);
+                } catch (IOException | RuntimeException e) {
+                    errors[index] = e;
+                }
+            });
+            threads[i].start();
+        }
+        IllegalStateException failure = null;
+        for (int i = 0; i < threads.length; i++) {
+            try {
+                threads[i].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for the sources", e);
+            }
+            if (errors[i] == null) continue;
+            if (failure == null) {
+                failure = new IllegalStateException("Could not read source " + i, errors[i]);
+            } else {
+                failure.addSuppressed(errors[i]);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /** Reads all the given In sources at the same time, one thread per source. */
+    public void ingest(In... sources) {
+        Reader[] readers = new Reader[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            readers[i] = new InReader(sources[i]);
+        }
+        ingest(readers);
+    }
+
+    /** Reads the given source and adds its counts to this model. May be called by several
+     *  threads at the same time, each with its own source. As in LanguageModel.train, the
+     *  whitespace at the end of the source is not counted. The source is not closed. */
+    public void ingest(Reader source) {
+        try {
+            count(source);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the source", e);
+        }
+    }
+
+    // Reads the given source and adds its counts to this model.
+    private void count(Reader source) throws IOException {
+        WindowKey window = new WindowKey(windowLength);
+        CompactLanguageModel batch = new CompactLanguageModel(windowLength);
+        char[] buffer = new char[BATCH_SIZE];
+        // Whitespace is counted only once a non-whitespace character follows it
+        char[] pending = new char[16];
+        int pendingSize = 0;
+        int batchSize = 0;
+        int n;
+        while ((n = source.read(buffer)) > 0) {
+            for (int i = 0; i < n; i++) {
+                char c = buffer[i];
+                if (Character.isWhitespace(c)) {
+                    if (pendingSize == pending.length) {
+                        pending = Arrays.copyOf(pending, pendingSize * 2);
+                    }
+                    pending[pendingSize++] = c;
+                    continue;
+                }
+                for (int j = 0; j <= pendingSize; j++) {
+                    char next = (j < pendingSize) ? pending[j] : c;
+                    if (window.isFull()) {
+                        batch.update(window, next);
+                        batchSize++;
+                    }
+                    window.add(next);
+                }
+                pendingSize = 0;
+            }
+            if (batchSize >= BATCH_SIZE) {
+                flush(batch);
+                batch = new CompactLanguageModel(windowLength);
+                batchSize = 0;
+            }
+        }
+        flush(batch);
+    }
+
+    // Adds the counts of the given batch to the shared model.
+    private void flush(CompactLanguageModel batch) {
+        long batchTotal = 0;
+        batch.pack();
+        for (int id = 0; id < batch.getSize(); id++) {
+            Successors successors = counts.computeIfAbsent(batch.contexts.keyAt(id), k -> new Successors());
+            successors.add(batch.entryChars, batch.entryCounts, batch.heads[id], batch.heads[id + 1]);
+            batchTotal += batch.totals[id];
+        }
+        total.add(batchTotal);
+    }
+
+    // Adds n to the number of times that the given character followed the given window
+    void add(String window, char c, long n) {
+        Successors successors = counts.computeIfAbsent(window, k -> new Successors());
+        synchronized (successors) {
+            successors.add(c, n);
+        }
+        total.add(n);
+    }
+
+    /** Returns the number of characters that were counted so far. */
+    public long getTotal() {
+        return total.sum();
+    }
+
+    /** Returns the number of windows in this model. */
+    public int getSize() {
+        return counts.size();
+    }
+
+    /** Returns the number of times that the given character followed the given window. */
+    public long getCount(String window, char c) {
+        Successors successors = counts.get(window);
+        return (successors == null) ? 0 : successors.get(c);
+    }
+
+    /** Returns a language model holding the counts of this model, with the given seed.
+     *  Should be called once all the sources have been read. Windows are added in sorted order,
+     *  and the successors of each window are listed in character order, so the result does
+     *  not depend on how the threads were scheduled. A CompactLanguageModel counts in ints, so
+     *  throws an ArithmeticException if a count, or the sum of the counts of a window, does not
+     *  fit in an int; the counts are never clamped. */
+    public CompactLanguageModel toModel(int seed) {
+        CompactLanguageModel model = new CompactLanguageModel(windowLength, seed);
+        String[] windows = counts.keySet().toArray(new String[0]);
+        Arrays.sort(windows);
+        WindowKey key = new WindowKey(windowLength);
+        for (String window : windows) {
+            key.clear();
+            for (int i = 0; i < windowLength; i++) {
+                key.add(window.charAt(i));
+            }
+            Successors successors = counts.get(window);
+            char[] chars = successors.sortedChars();
+            int windowTotal = 0;
+            // New characters are added to the beginning of a list, so they are added in reverse order
+            for (int i = chars.length - 1; i >= 0; i--) {
+                int count = Math.toIntExact(successors.get(chars[i]));
+                windowTotal = Math.addExact(windowTotal, count);
+                model.update(key, chars[i], count);
+            }
+        }
+        model.finishTraining();
+        return model;
+    }
+
+    // The successors of one window in the shared model, with their counts.
+    // All the accesses hold the lock of this object, which only the threads of one window share.
+    private static class Successors {
+        // Most windows have a single successor
+        private char[] chars = new char[1];
+        private long[] counts = new long[1];
+        private int size;
+
+        // Adds the counts of the entries in [from, to) of the given arrays
+        synchronized void add(char[] entryChars, int[] entryCounts, int from, int to) {
+            for (int e = from; e < to; e++) {
+                add(entryChars[e], entryCounts[e]);
+            }
+        }
+
+        // Adds n to the count of the given character
+        private void add(char c, long n) {
+            for (int j = 0; j < size; j++) {
+                if (chars[j] == c) {
+                    counts[j] += n;
+                    return;
+                }
+            }
+            if (size == chars.length) {
+                chars = Arrays.copyOf(chars, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            chars[size] = c;
+            counts[size] = n;
+            size++;
+        }
+
+        // Returns the count of the given character, or 0
+        synchronized long get(char c) {
+            for (int j = 0; j < size; j++) {
+                if (chars[j] == c) return counts[j];
+            }
+            return 0;
+        }
+
+        // Returns the characters, in sorted order
+        synchronized char[] sortedChars() {
+            char[] sorted = Arrays.copyOf(chars, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+
+    // Reads the characters of an In object, as a Reader.
+    private static class InReader extends Reader {
+        private final In in;
+
+        InReader(In in) {
+            this.in = in;
+        }
+
+        public int read(char[] buf, int off, int len) {
+            return in.read(buf, off, len);
+        }
+
+        public void close() {
+            in.close();
+        }
+    }
+}
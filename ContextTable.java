@@ -0,0 +1,226 @@
+import java.util.Arrays;
+
+/** An open-addressing table of contexts (windows) of a fixed length.
+ *  Every context that is added gets an id: 0 for the first one, 1 for the second one, and so on.
+ *  Users of this class keep the data of each context in arrays that are indexed by these ids.
+ *  Contexts are looked up by a WindowKey, so a lookup does not allocate anything. A window that
+ *  is longer than the contexts of the table stands for its suffix of the table's length.
+ *  Short contexts are packed into a single long: up to 4 chars of 16 bits, or up to 8 chars
+ *  of 8 bits when all the chars of the context are in the range 0-255. Other contexts are
+ *  stored in a shared char arena, and their long holds their offset in the arena. */
+public class ContextTable {
+
+    // The initial number of slots (a power of 2)
+    static final int INITIAL_CAPACITY = 1 << 10;
+
+    // The maximal ratio between the number of contexts and the number of slots
+    static final double LOAD_FACTOR = 0.5;
+
+    // The length of the contexts of this table
+    private final int keyLength;
+
+    // The slots of the table. Each slot holds (id + 1) of a context, or 0 if empty.
+    private int[] slots;
+
+    // The packed characters, or the arena offset, of each context, by id
+    private long[] keys;
+
+    // One bit per id, set if the context is stored in the arena (used only for 5-8 chars)
+    private long[] inArena;
+
+    // The characters of the contexts that cannot be packed
+    private char[] arena;
+
+    // The number of chars used in the arena
+    private int arenaSize;
+
+    // The number of contexts in this table
+    private int size;
+
+    /** Constructs an empty table of contexts of the given length. */
+    public ContextTable(int keyLength) {
+        this.keyLength = keyLength;
+        slots = new int[INITIAL_CAPACITY];
+        keys = new long[INITIAL_CAPACITY / 2];
+        inArena = new long[(keys.length + 63) / 64];
+        arena = new char[0];
+        arenaSize = 0;
+        size = 0;
+    }
+
+    /** Constructs a copy of the given table, that does not change when the given table changes. */
+    public ContextTable(ContextTable other) {
+        keyLength = other.keyLength;
+        slots = other.slots.clone();
+        keys = other.keys.clone();
+        inArena = other.inArena.clone();
+        arena = Arrays.copyOf(other.arena, other.arenaSize);
+        arenaSize = other.arenaSize;
+        size = other.size;
+    }
+
+    /** Returns the number of contexts in this table. */
+    public int getSize() {
+        return size;
+    }
+
+    /** Returns the length of the contexts of this table. */
+    public int getKeyLength() {
+        return keyLength;
+    }
+
+    /** Returns the character at the given index of the context with the given id. */
+    public char charAt(int id, int index) {
+        if (isInArena(id)) {
+            return arena[(int) keys[id] + index];
+        }
+        int bits = (keyLength <= 4) ? 16 : 8;
+        long mask = (1L << bits) - 1;
+        return (char) ((keys[id] >>> (bits * (keyLength - 1 - index))) & mask);
+    }
+
+    /** Returns the context with the given id, as a string. */
+    public String keyAt(int id) {
+        char[] str = new char[keyLength];
+        for (int i = 0; i < keyLength; i++) {
+            str[i] = charAt(id, i);
+        }
+        return new String(str);
+    }
+
+    /** Returns the id of the context that equals the given window, or -1 if there is no such context. */
+    public int find(WindowKey key) {
+        if (key.length() < keyLength) return -1;
+        int mask = slots.length - 1;
+        if (isPackable(key)) {
+            long packed = pack(key);
+            for (int i = hashPacked(packed) & mask; slots[i] != 0; i = (i + 1) & mask) {
+                int id = slots[i] - 1;
+                if (keys[id] == packed && !isInArena(id)) {
+                    return id;
+                }
+            }
+        } else {
+            for (int i = spread(key.hashCode(keyLength)) & mask; slots[i] != 0; i = (i + 1) & mask) {
+                int id = slots[i] - 1;
+                if (isInArena(id) && arenaMatches((int) keys[id], key)) {
+                    return id;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** Adds the given window to this table, and returns its id.
+     *  Should be called only if find(key) is -1. */
+    public int add(WindowKey key) {
+        if (key.length() < keyLength) {
+            throw new IllegalArgumentException("Key length: " + key.length() + ", expected: " + keyLength);
+        }
+        if (size + 1 > slots.length * LOAD_FACTOR) {
+            grow();
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            inArena = Arrays.copyOf(inArena, (size * 2 + 63) / 64);
+        }
+        int id = size++;
+        if (isPackable(key)) {
+            keys[id] = pack(key);
+        } else {
+            if (arenaSize + keyLength > arena.length) {
+                arena = Arrays.copyOf(arena, Math.max(arena.length * 2, 1024 * keyLength));
+            }
+            int from = key.length() - keyLength;
+            for (int i = 0; i < keyLength; i++) {
+                arena[arenaSize + i] = key.charAt(from + i);
+            }
+            keys[id] = arenaSize;
+            arenaSize += keyLength;
+            inArena[id >>> 6] |= 1L << id;
+        }
+        insert(id);
+        return id;
+    }
+
+    /** Trims the arrays of this table to the contexts that it holds, once no more contexts are
+     *  expected. Adding more contexts grows the arrays again. */
+    public void trim() {
+        keys = Arrays.copyOf(keys, Math.max(size, 1));
+        inArena = Arrays.copyOf(inArena, (keys.length + 63) / 64);
+        arena = Arrays.copyOf(arena, arenaSize);
+    }
+
+    /** Returns the number of bytes used by the arrays of this table. */
+    public long getFootprint() {
+        return 4L * slots.length + 8L * keys.length + 8L * inArena.length + 2L * arena.length;
+    }
+
+    // Checks if the context with the given id is stored in the arena
+    private boolean isInArena(int id) {
+        return (inArena[id >>> 6] & (1L << id)) != 0;
+    }
+
+    // Checks if the given window can be packed into a long
+    private boolean isPackable(WindowKey key) {
+        if (keyLength <= 4) return true;
+        if (keyLength > 8) return false;
+        return key.isNarrow(keyLength);
+    }
+
+    // Packs the given window into a long, 16 bits per char for up to 4 chars, otherwise 8 bits per char
+    private long pack(WindowKey key) {
+        return (keyLength <= 4) ? key.packed16(keyLength) : key.packed8(keyLength);
+    }
+
+    // Checks if the arena chars at the given offset equal the chars of the given window
+    private boolean arenaMatches(int offset, WindowKey key) {
+        int from = key.length() - keyLength;
+        for (int i = 0; i < keyLength; i++) {
+            if (arena[offset + i] != key.charAt(from + i)) return false;
+        }
+        return true;
+    }
+
+    // Returns the hash code of the context with the given id
+    private int hashOf(int id) {
+        if (!isInArena(id)) {
+            return hashPacked(keys[id]);
+        }
+        int hash = 0;
+        for (int i = 0; i < keyLength; i++) {
+            hash = hash * WindowKey.HASH_BASE + arena[(int) keys[id] + i];
+        }
+        return spread(hash);
+    }
+
+    // Places the given context in the first free slot of its probe sequence
+    private void insert(int id) {
+        int mask = slots.length - 1;
+        int i = hashOf(id) & mask;
+        while (slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = id + 1;
+    }
+
+    // Doubles the number of slots, and re-inserts all the contexts
+    private void grow() {
+        slots = new int[slots.length * 2];
+        for (int id = 0; id < size; id++) {
+            insert(id);
+        }
+    }
+
+    // Mixes the bits of a packed context
+    static int hashPacked(long packed) {
+        long h = packed * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // Mixes the bits of the given hash code, since String hash codes of short windows are not well spread
+    static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
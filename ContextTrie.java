@@ -0,0 +1,381 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/** A trie of all the contexts (windows) of length 0..maxWindowLength of a corpus, with suffix links.
+ *  Every node stands for a context, and holds the counts of the characters that followed it.
+ *  Each (node, character) entry also points to the child node (the context followed by that
+ *  character), and each node points to its suffix (the context without its first character).
+ *  So neighbouring contexts share their storage, one trie answers every window length up to the
+ *  maximum, and moving from one window to the next is a single step instead of a new lookup.
+ *  Training counts each character only once, at the longest context that precedes it. When a
+ *  (context, character) pair is seen for the first time, the character gets an entry in every
+ *  suffix of the context that does not have one yet (while the next context is created), so the
+ *  entries are created in the same order as with one model per window length. Once the corpus is read, the counts are added along the
+ *  suffix links, from the longest contexts to the root, so every node counts all the occurrences
+ *  of its context. So the work per character does not grow with the number of window lengths.
+ *  All the data is kept in int/char arrays, indexed by node id or by entry id; there are no
+ *  objects per node. The entries of a node are kept in a linked list, newest first, exactly
+ *  like a List, so generating with a given seed produces the same text as LanguageModel.
+ *  An open-addressing table of slots maps each (node, character) pair to its entry, so finding
+ *  an entry does not scan the list of its node. */
+public class ContextTrie {
+
+    // The id of the root node, which stands for the empty context
+    static final int ROOT = 0;
+
+    // The initial capacity of the node and entry arrays
+    static final int INITIAL_CAPACITY = 1 << 10;
+
+    // The longest context length stored in this trie
+    private final int maxWindowLength;
+
+    // Per node: its suffix link, its depth (context length), its first entry, and the total of its counts
+    private int[] links;
+    private int[] depths;
+    private int[] firstEntries;
+    private int[] totals;
+    private int nodeCount;
+
+    // Per entry: its key (its node, and its character in the low 16 bits), its count, its child node
+    // (or -1), and the next entry of the same node (or -1).
+    // The nodes of the longest contexts have no children, so their entries keep the node of the next
+    // context instead: the suffix of the context, followed by the entry's character.
+    private long[] entryKeys;
+    private int[] entryCounts;
+    private int[] entryChildren;
+    private int[] nextEntries;
+    private int entryCount;
+
+    // The open-addressing table of the entries, by node and character: entry id + 1, or 0 for an
+    // empty slot. Its capacity is a power of two, at least twice the number of entries.
+    private int[] slots;
+
+    // The random number generator used by this model.
+    private Random randomGenerator;
+
+    /** Constructs an empty trie for contexts of up to the given length, with the given seed value. */
+    public ContextTrie(int maxWindowLength, int seed) {
+        this(maxWindowLength, new Random(seed));
+    }
+
+    /** Constructs an empty trie for contexts of up to the given length. */
+    public ContextTrie(int maxWindowLength) {
+        this(maxWindowLength, new Random());
+    }
+
+    private ContextTrie(int maxWindowLength, Random randomGenerator) {
+        this.maxWindowLength = maxWindowLength;
+        this.randomGenerator = randomGenerator;
+        links = new int[INITIAL_CAPACITY];
+        depths = new int[INITIAL_CAPACITY];
+        firstEntries = new int[INITIAL_CAPACITY];
+        totals = new int[INITIAL_CAPACITY];
+        entryKeys = new long[INITIAL_CAPACITY];
+        entryCounts = new int[INITIAL_CAPACITY];
+        entryChildren = new int[INITIAL_CAPACITY];
+        nextEntries = new int[INITIAL_CAPACITY];
+        slots = new int[2 * INITIAL_CAPACITY];
+        nodeCount = 0;
+        entryCount = 0;
+        newNode(0, ROOT);
+    }
+
+    /** Returns the number of nodes (distinct contexts, including the empty one) in this trie. */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /** Returns the number of (context, character) entries in this trie. */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /** Returns the number of bytes used by the arrays of this trie. */
+    public long getFootprint() {
+        return 16L * links.length + 20L * entryKeys.length + 4L * slots.length;
+    }
+
+    /** Returns the longest context length stored in this trie. */
+    public int getMaxWindowLength() {
+        return maxWindowLength;
+    }
+
+    /** Returns the number of (context, character) entries of the contexts of the given length. */
+    public int getEntryCount(int windowLength) {
+        int count = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            if (depths[node] != windowLength) continue;
+            for (int e = firstEntries[node]; e != -1; e = nextEntries[e]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** Builds the trie from the text in the given file (the corpus). May be called for several
+     *  files, and counts all of them (each file starts with an empty context). */
+    public void train(String fileName) {
+        char[] buffer = new char[LanguageModel.BUFFER_SIZE];
+        CorpusReader reader = new CorpusReader(fileName);
+        int node = ROOT;
+        int n;
+
+        // Counts of an earlier training are taken back to the longest contexts first
+        addToSuffixes(-1);
+
+        // Processes the entire text, one buffer at a time
+        while ((n = reader.read(buffer)) > 0) {
+            for (int i = 0; i < n; i++) {
+                char c = buffer[i];
+                // Counts c after the current context only
+                int e = entryOf(node, c, true);
+                entryCounts[e]++;
+                // Moves to the longest context (up to maxWindowLength) that ends with c. For a new
+                // pair, creating that context adds an entry of c to every suffix that lacks one.
+                if (entryChildren[e] == -1) {
+                    // (Creating the context may grow the entry arrays, so it is stored afterwards.)
+                    int next = (depths[node] == maxWindowLength) ? childOf(links[node], c) : childOf(node, e);
+                    entryChildren[e] = next;
+                }
+                node = entryChildren[e];
+            }
+        }
+        reader.close();
+        addToSuffixes(1);
+    }
+
+    // With sign 1, adds the counts of every entry to the entry of the same character in the suffix of
+    // its node, from the longest contexts to the root, so that each node counts all the occurrences
+    // of its context. With sign -1, undoes it. Then sums up the total of every node.
+    private void addToSuffixes(int sign) {
+        // The entries, ordered by the depth of their nodes
+        int[] starts = new int[maxWindowLength + 2];
+        for (int e = 0; e < entryCount; e++) {
+            starts[depths[nodeOf(e)] + 1]++;
+        }
+        for (int d = 1; d < starts.length; d++) {
+            starts[d] += starts[d - 1];
+        }
+        int[] order = new int[entryCount];
+        for (int e = 0; e < entryCount; e++) {
+            order[starts[depths[nodeOf(e)]]++] = e;
+        }
+        // Adding goes from the deepest entries up, so an entry is complete before it is added to its suffix.
+        // Subtracting goes from the root down, so an entry still has its complete count when it is subtracted.
+        for (int k = 0; k < entryCount; k++) {
+            int e = (sign > 0) ? order[entryCount - 1 - k] : order[k];
+            int node = nodeOf(e);
+            if (node == ROOT) continue;
+            entryCounts[entryOf(links[node], charOf(e), false)] += sign * entryCounts[e];
+        }
+        Arrays.fill(totals, 0, nodeCount, 0);
+        for (int e = 0; e < entryCount; e++) {
+            totals[nodeOf(e)] += entryCounts[e];
+        }
+    }
+
+    /** Returns the node of the given context, or -1 if the context is not in this trie. */
+    public int find(CharSequence context) {
+        if (context.length() > maxWindowLength) return -1;
+        int node = ROOT;
+        for (int i = 0; i < context.length() && node != -1; i++) {
+            int e = entryOf(node, context.charAt(i), false);
+            node = (e == -1) ? -1 : entryChildren[e];
+        }
+        return node;
+    }
+
+    /** Returns the number of times that the given character followed the given context. */
+    public int getCount(String context, char c) {
+        int node = find(context);
+        if (node == -1) return 0;
+        int e = entryOf(node, c, false);
+        return (e == -1) ? 0 : entryCounts[e];
+    }
+
+    /**
+     * Generates a random text, based on the contexts of the given window length.
+     * Produces the same text as a LanguageModel with that window length and the same seed.
+     * @param initialText - text to start with.
+     * @param textLength - the total length of the text to generate
+     * @param windowLength - the window length to use (1..maxWindowLength)
+     * @return the generated text
+     */
+    public String generate(String initialText, int textLength, int windowLength) {
+        if (windowLength < 1 || windowLength > maxWindowLength) {
+            throw new IllegalArgumentException("windowLength must be in 1.." + maxWindowLength);
+        }
+        if (initialText.length() < windowLength) {
+            return initialText;
+        }
+        StringBuilder generatedText = new StringBuilder(initialText);
+        int node = find(initialText.substring(initialText.length() - windowLength));
+
+        while (generatedText.length() < textLength) {
+            // If the current window was never followed by a character, stop the process.
+            if (node == -1 || totals[node] == 0) {
+                break;
+            }
+            char nextChar = getRandomChar(node);
+            generatedText.append(nextChar);
+            // The next window is the suffix of this one, followed by nextChar
+            int e = entryOf(links[node], nextChar, false);
+            node = (e == -1) ? -1 : entryChildren[e];
+        }
+        return generatedText.toString();
+    }
+
+    /**
+     * Generates a random text, backing off to shorter contexts: every character is drawn after the
+     * longest context (up to maxWindowLength) that ends the text and was followed by a character in
+     * training, down to the frequencies of single characters (the root). So the generated text
+     * always reaches the requested length, unless the corpus was empty.
+     * @param initialText - text to start with.
+     * @param textLength - the total length of the text to generate
+     * @return the generated text
+     */
+    public String generateWithBackoff(String initialText, int textLength) {
+        StringBuilder generatedText = new StringBuilder(initialText);
+        // The longest suffix of the initial text that is a context in this trie
+        int node = ROOT;
+        for (int k = Math.min(initialText.length(), maxWindowLength); k > 0; k--) {
+            int v = find(initialText.substring(initialText.length() - k));
+            if (v != -1) {
+                node = v;
+                break;
+            }
+        }
+
+        while (generatedText.length() < textLength) {
+            // Backs off to the longest suffix that was followed by a character
+            while (totals[node] == 0 && node != ROOT) {
+                node = links[node];
+            }
+            // An empty corpus has no characters to back off to.
+            if (totals[node] == 0) {
+                break;
+            }
+            char nextChar = getRandomChar(node);
+            generatedText.append(nextChar);
+            // Every suffix of the context was followed by nextChar, so the longest context that
+            // ends the text now is the (possibly shortened) context followed by nextChar.
+            int e = entryOf((depths[node] == maxWindowLength) ? links[node] : node, nextChar, false);
+            node = entryChildren[e];
+        }
+        return generatedText.toString();
+    }
+
+    // Returns a random character that followed the given node, drawn like LanguageModel.getRandomChar.
+    private char getRandomChar(int node) {
+        double r = randomGenerator.nextDouble();
+        double cumulativeProb = 0;
+        int last = -1;
+        for (int e = firstEntries[node]; e != -1; e = nextEntries[e]) {
+            cumulativeProb += (double) entryCounts[e] / totals[node];
+            if (cumulativeProb > r) {
+                return charOf(e);
+            }
+            last = e;
+        }
+        return charOf(last);
+    }
+
+    // Returns the entry of the given character in the given node. If there is no such entry,
+    // adds one (to the beginning of the node's list) if create is true, or returns -1 otherwise.
+    private int entryOf(int node, char c, boolean create) {
+        long key = ((long) node << 16) | c;
+        int mask = slots.length - 1;
+        for (int i = slotOf(key) & mask; slots[i] != 0; i = (i + 1) & mask) {
+            int e = slots[i] - 1;
+            if (entryKeys[e] == key) {
+                return e;
+            }
+        }
+        return create ? addEntry(node, c) : -1;
+    }
+
+    // Returns the node of the given entry
+    private int nodeOf(int e) {
+        return (int) (entryKeys[e] >>> 16);
+    }
+
+    // Returns the character of the given entry
+    private char charOf(int e) {
+        return (char) entryKeys[e];
+    }
+
+    // Returns the hash of the slot of the given entry key
+    private static int slotOf(long key) {
+        return ContextTable.spread((int) (key >>> 16) * 65599 + (char) key);
+    }
+
+    // Places the given entry in the first free slot of its probe sequence
+    private void insert(int e) {
+        int mask = slots.length - 1;
+        int i = slotOf(entryKeys[e]) & mask;
+        while (slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = e + 1;
+    }
+
+    // Adds an entry of the given character to the beginning of the given node's list, and returns it.
+    private int addEntry(int node, char c) {
+        if (entryCount == entryKeys.length) {
+            int capacity = entryCount * 2;
+            entryKeys = Arrays.copyOf(entryKeys, capacity);
+            entryCounts = Arrays.copyOf(entryCounts, capacity);
+            entryChildren = Arrays.copyOf(entryChildren, capacity);
+            nextEntries = Arrays.copyOf(nextEntries, capacity);
+        }
+        int e = entryCount++;
+        entryKeys[e] = ((long) node << 16) | c;
+        entryCounts[e] = 0;
+        entryChildren[e] = -1;
+        nextEntries[e] = firstEntries[node];
+        firstEntries[node] = e;
+        if (2 * entryCount > slots.length) {
+            slots = new int[slots.length * 2];
+            for (int k = 0; k < entryCount; k++) {
+                insert(k);
+            }
+        } else {
+            insert(e);
+        }
+        return e;
+    }
+
+    // Returns the child of the given node by the given character, creating it (and its suffix
+    // link, and the entries of c in the node's suffixes) if needed. An entry of a node shorter than
+    // maxWindowLength exists exactly when its child does, so the creation stops at the first suffix
+    // that already has an entry of c.
+    private int childOf(int node, char c) {
+        return childOf(node, entryOf(node, c, true));
+    }
+
+    // Returns the child of the given node by the given entry of the node, creating it if needed.
+    private int childOf(int node, int e) {
+        if (entryChildren[e] == -1) {
+            int link = (node == ROOT) ? ROOT : childOf(links[node], charOf(e));
+            entryChildren[e] = newNode(depths[node] + 1, link);
+        }
+        return entryChildren[e];
+    }
+
+    // Adds a node with the given depth and suffix link, and returns its id.
+    private int newNode(int depth, int link) {
+        if (nodeCount == links.length) {
+            int capacity = nodeCount * 2;
+            links = Arrays.copyOf(links, capacity);
+            depths = Arrays.copyOf(depths, capacity);
+            firstEntries = Arrays.copyOf(firstEntries, capacity);
+            totals = Arrays.copyOf(totals, capacity);
+        }
+        int node = nodeCount++;
+        links[node] = link;
+        depths[node] = depth;
+        firstEntries[node] = -1;
+        totals[node] = 0;
+        return node;
+    }
+}
@@ -0,0 +1,156 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/** Reads the characters of a corpus file in bulk.
+ *  The file is memory-mapped one region at a time and decoded from UTF-8 straight
+ *  into the caller's char buffer, so no per-character work is done by this class.
+ *  Trailing whitespace at the end of the file is not returned. This mirrors the
+ *  training loop of LanguageModel, which stops as soon as In.isEmpty() is true,
+ *  i.e. when nothing but whitespace is left in the file. */
+public class CorpusReader {
+
+    // The largest region of the file that is mapped at once
+    static final int REGION_SIZE = 1 << 28;
+
+    // The channel of the corpus file
+    private FileChannel channel;
+
+    // The number of bytes that are read from the file (trailing whitespace excluded)
+    private long end;
+
+    // The file offset of the currently mapped region
+    private long regionStart;
+
+    // The currently mapped region
+    private MappedByteBuffer region;
+
+    // Decodes the mapped bytes into characters
+    private CharsetDecoder decoder;
+
+    /** Opens the given corpus file for reading. */
+    public CorpusReader(String fileName) {
+        this(fileName, 0, -1);
+    }
+
+    /** Opens the given corpus file for reading the bytes in [from, to).
+     *  If to is negative, reads up to the end of the file (trailing whitespace excluded).
+     *  The given offsets are expected to fall on character boundaries. */
+    public CorpusReader(String fileName, long from, long to) {
+        if (fileName == null) throw new IllegalArgumentException("argument is null");
+        try {
+            channel = new RandomAccessFile(new File(fileName), "r").getChannel();
+            end = (to < 0) ? trimmedLength(channel) : to;
+        }
+        catch (IOException ioe) {
+            throw new IllegalArgumentException("Could not open " + fileName, ioe);
+        }
+        regionStart = from;
+        region = null;
+        decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /** Returns the number of bytes that this reader covers, counted from the start of the file. */
+    public long getEnd() {
+        return end;
+    }
+
+    /** Reads up to buf.length characters into the given buffer.
+     *  Returns the number of characters read, or -1 if the input is exhausted. */
+    public int read(char[] buf) {
+        return read(buf, 0, buf.length);
+    }
+
+    /** Reads up to len characters into the given buffer, starting at index off.
+     *  Returns the number of characters read, or -1 if the input is exhausted. */
+    public int read(char[] buf, int off, int len) {
+        if (len < 2) throw new IllegalArgumentException("buffer must hold at least 2 chars");
+        CharBuffer out = CharBuffer.wrap(buf, off, len);
+        while (out.position() == off) {
+            if (region == null || !region.hasRemaining()) {
+                if (!mapNextRegion()) {
+                    return -1;
+                }
+            }
+            boolean last = regionStart + region.limit() >= end;
+            decoder.decode(region, out, last);
+            if (last && !region.hasRemaining()) {
+                decoder.flush(out);
+            }
+            if (out.position() == off && region.hasRemaining() && !last) {
+                // Only a partial character is left in this region; remaps from its first byte.
+                regionStart += region.position();
+                region = null;
+            }
+        }
+        return out.position() - off;
+    }
+
+    // Maps the region that follows the current one. Returns false if no bytes are left.
+    private boolean mapNextRegion() {
+        if (region != null) {
+            regionStart += region.position();
+        }
+        if (regionStart >= end) {
+            return false;
+        }
+        long size = Math.min(REGION_SIZE, end - regionStart);
+        try {
+            region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, size);
+        }
+        catch (IOException ioe) {
+            throw new IllegalStateException("Could not map the corpus file", ioe);
+        }
+        return true;
+    }
+
+    /** Closes this reader. */
+    public void close() {
+        try {
+            channel.close();
+        }
+        catch (IOException ioe) {
+            // nothing to do, the file was only read
+        }
+    }
+
+    /** Returns the length in bytes of the given UTF-8 file, without its trailing whitespace. */
+    static long trimmedLength(FileChannel channel) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(4);
+        long end = channel.size();
+        while (end > 0) {
+            // Steps back to the first byte of the last character
+            long start = end - 1;
+            while (start > 0 && end - start < 4 && (byteAt(channel, bytes, start) & 0xC0) == 0x80) {
+                start--;
+            }
+            bytes.clear();
+            bytes.limit((int) (end - start));
+            channel.read(bytes, start);
+            bytes.flip();
+            String ch = StandardCharsets.UTF_8.decode(bytes).toString();
+            if (ch.isEmpty() || !Character.isWhitespace(ch.codePointAt(0))) {
+                break;
+            }
+            end = start;
+        }
+        return end;
+    }
+
+    // Reads a single byte of the file
+    private static int byteAt(FileChannel channel, ByteBuffer bytes, long position) throws IOException {
+        bytes.clear();
+        bytes.limit(1);
+        channel.read(bytes, position);
+        return bytes.get(0);
+    }
+}
@@ -0,0 +1,445 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/** Trains a model on a corpus that is too large for memory, and saves it as a ModelSnapshot
+ *  file, which a ModelSnapshot or a TieredLanguageModel can then serve.
+ *  Training keeps to a fixed memory budget, whatever the size of the corpus. The budget is shared
+ *  by the records of a chunk and the buffers of the run files: while runs are spilled, one run
+ *  buffer is open next to the chunk, and while runs are merged, the fan-in readers and the writer
+ *  each have a run buffer of budget / (fan-in + 1) bytes (at most RUN_BUFFER_SIZE). A budget that
+ *  leaves less than MIN_RUN_BUFFER_SIZE per buffer gets a smaller fan-in, and a budget that cannot
+ *  merge two runs at once is rejected. (The snapshot writer also keeps the 8-byte offset of every
+ *  window that it writes, for the index at the end of the snapshot.)
+ *  The corpus is read in chunks that fill the rest of the budget. The (window, successor)
+ *  records of a chunk are sorted in memory, equal records are combined into one record with
+ *  their count and the position of their first occurrence, and the combined records are
+ *  spilled to a temporary run file. Then the runs are merged, at most mergeFanIn at a time, in
+ *  as many passes as needed, and the last pass writes the snapshot, one window after the other.
+ *  All the files are read and written sequentially.
+ *  The successors of each window are written in the order of LanguageModel's lists (the last
+ *  character to first occur comes first), so the snapshot has the same bytes as
+ *  ModelSnapshot.save of a LanguageModel that was trained on the same corpus in memory. */
+public class ExternalTrainer {
+
+    // The number of runs that are merged at once, by default
+    static final int MERGE_FAN_IN = 64;
+
+    // The bytes of memory that each record of a chunk takes: its char, its position in the
+    // chunk, and the position in the temporary array of the sort
+    static final int RECORD_BYTES = 2 + 4 + 4;
+
+    // The largest and the smallest size of the buffer of each run file
+    static final int RUN_BUFFER_SIZE = 1 << 16;
+    static final int MIN_RUN_BUFFER_SIZE = 1 << 12;
+
+    // The window length used in this model.
+    private final int windowLength;
+
+    // The number of records in a chunk
+    private final int chunkRecords;
+
+    // The number of runs that are merged at once
+    private final int mergeFanIn;
+
+    // The size of the buffer of each run file, and of the snapshot
+    private final int runBufferSize;
+
+    // The directory of the run files
+    private final File tempDir;
+
+    // The number of records that were read, the number of runs that were spilled, the number of
+    // bytes that were written to runs, and the number of merge passes of the last training
+    private long records;
+    private int runs;
+    private long spilledBytes;
+    private int mergePasses;
+
+    /** Constructs a trainer of models with the given window length, that uses about the given
+     *  number of bytes of memory for its records and buffers, and keeps its run files in the
+     *  default temporary directory. */
+    public ExternalTrainer(int windowLength, long memoryBudget) {
+        this(windowLength, memoryBudget, MERGE_FAN_IN, null);
+    }
+
+    /** Constructs a trainer of models with the given window length, that uses about the given
+     *  number of bytes of memory for its records and buffers, merges at most mergeFanIn runs at
+     *  once (fewer if the budget cannot give each of them MIN_RUN_BUFFER_SIZE bytes), and keeps
+     *  its run files in the given directory (null for the default temporary directory). */
+    public ExternalTrainer(int windowLength, long memoryBudget, int mergeFanIn, File tempDir) {
+        if (windowLength < 1) {
+            throw new IllegalArgumentException("window length must be positive: " + windowLength);
+        }
+        if (mergeFanIn < 2) {
+            throw new IllegalArgumentException("merge fan-in must be at least 2: " + mergeFanIn);
+        }
+        // A merge of two runs needs three buffers
+        long fanIn = Math.min(mergeFanIn, memoryBudget / MIN_RUN_BUFFER_SIZE - 1);
+        if (fanIn < 2) {
+            throw new IllegalArgumentException("memory budget is too small to merge two runs: " + memoryBudget);
+        }
+        long buffer = Math.min(RUN_BUFFER_SIZE, memoryBudget / (fanIn + 1));
+        long chunk = (memoryBudget - buffer) / RECORD_BYTES;
+        if (chunk < Math.max(2L * windowLength, 1024)) {
+            throw new IllegalArgumentException("memory budget is too small: " + memoryBudget);
+        }
+        this.windowLength = windowLength;
+        this.chunkRecords = (int) Math.min(chunk, Integer.MAX_VALUE - 16);
+        this.mergeFanIn = (int) fanIn;
+        this.runBufferSize = (int) buffer;
+        this.tempDir = tempDir;
+    }
+
+    /** Returns the number of runs that are merged at once. */
+    public int getMergeFanIn() {
+        return mergeFanIn;
+    }
+
+    /** Returns the size of the buffer of each run file. */
+    public int getRunBufferSize() {
+        return runBufferSize;
+    }
+
+    /** Returns the number of (window, successor) records that the last training read. */
+    public long getRecords() {
+        return records;
+    }
+
+    /** Returns the number of runs that the last training spilled (merge passes excluded). */
+    public int getRuns() {
+        return runs;
+    }
+
+    /** Returns the number of bytes that the last training wrote to run files, merge passes included. */
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    /** Returns the number of merge passes of the last training (the pass that writes the snapshot included). */
+    public int getMergePasses() {
+        return mergePasses;
+    }
+
+    /** Trains a model on the text in the given corpus file, and saves it in the given snapshot file. */
+    public void train(String corpusFile, String snapshotFile) {
+        records = 0;
+        runs = 0;
+        spilledBytes = 0;
+        mergePasses = 0;
+        ArrayList<File> files = new ArrayList<File>();
+        try {
+            spillRuns(corpusFile, files);
+            while (files.size() > mergeFanIn) {
+                ArrayList<File> merged = new ArrayList<File>();
+                for (int from = 0; from < files.size(); from += mergeFanIn) {
+                    java.util.List<File> group = files.subList(from, Math.min(from + mergeFanIn, files.size()));
+                    File run = newRunFile();
+                    merged.add(run);
+                    try (DataOutputStream out = openRun(run)) {
+                        merge(group, new RunSink(out));
+                    }
+                    spilledBytes += run.length();
+                    for (File file : group) {
+                        file.delete();
+                    }
+                }
+                files = merged;
+                mergePasses++;
+            }
+            SnapshotWriter writer = new SnapshotWriter(snapshotFile, windowLength, runBufferSize);
+            merge(files, new SnapshotSink(writer));
+            writer.close();
+            mergePasses++;
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Could not train on " + corpusFile, ioe);
+        } finally {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    // Reads the corpus in chunks, and spills the sorted and combined records of every chunk to a run.
+    private void spillRuns(String corpusFile, java.util.List<File> files) throws IOException {
+        // A chunk starts with the last windowLength characters of the previous chunk,
+        // so the record at index p is the window chunk[p - windowLength, p) and the successor chunk[p]
+        // A corpus has at most as many chars as bytes, so a small corpus gets a small chunk
+        CorpusReader reader = new CorpusReader(corpusFile);
+        int capacity = (int) Math.min(chunkRecords, reader.getEnd() + 2);
+        char[] chunk = new char[windowLength + capacity];
+        int[] order = new int[capacity];
+        int[] temp = new int[capacity];
+        long chunkStart = 0;
+        int length = 0;
+        boolean exhausted = false;
+        try {
+            while (true) {
+                // The reader needs room for 2 chars, so the last place of a chunk may stay empty
+                while (!exhausted && chunk.length - length >= 2) {
+                    int n = reader.read(chunk, length, Math.min(LanguageModel.BUFFER_SIZE, chunk.length - length));
+                    if (n == -1) {
+                        exhausted = true;
+                    } else {
+                        length += n;
+                    }
+                }
+                // The first windowLength characters of the corpus only form the first window
+                int count = length - windowLength;
+                if (count <= 0) break;
+                for (int i = 0; i < count; i++) {
+                    order[i] = windowLength + i;
+                }
+                sort(chunk, order, temp, 0, count);
+                File run = newRunFile();
+                files.add(run);
+                try (DataOutputStream out = openRun(run)) {
+                    RunSink sink = new RunSink(out);
+                    int i = 0;
+                    while (i < count) {
+                        int p = order[i];
+                        int j = i + 1;
+                        while (j < count && compare(chunk, p, order[j]) == 0) {
+                            j++;
+                        }
+                        // The sort is stable, so the first record of a group is its first occurrence
+                        sink.add(chunk, p - windowLength, j - i, chunkStart + p);
+                        i = j;
+                    }
+                }
+                records += count;
+                runs++;
+                spilledBytes += run.length();
+                if (exhausted) break;
+                System.arraycopy(chunk, length - windowLength, chunk, 0, windowLength);
+                chunkStart += length - windowLength;
+                length = windowLength;
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    // Compares the records at the given indexes of the given chunk: their windows, and then their successors
+    private int compare(char[] chunk, int a, int b) {
+        for (int i = -windowLength; i <= 0; i++) {
+            int cmp = chunk[a + i] - chunk[b + i];
+            if (cmp != 0) return cmp;
+        }
+        return 0;
+    }
+
+    // Sorts order[lo, hi) by the records at these indexes of the given chunk, keeping equal records in order.
+    private void sort(char[] chunk, int[] order, int[] temp, int lo, int hi) {
+        if (hi - lo <= 16) {
+            for (int i = lo + 1; i < hi; i++) {
+                int p = order[i];
+                int j = i - 1;
+                while (j >= lo && compare(chunk, order[j], p) > 0) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = p;
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        sort(chunk, order, temp, lo, mid);
+        sort(chunk, order, temp, mid, hi);
+        if (compare(chunk, order[mid - 1], order[mid]) <= 0) return;
+        System.arraycopy(order, lo, temp, lo, hi - lo);
+        int i = lo;
+        int j = mid;
+        for (int k = lo; k < hi; k++) {
+            if (j >= hi || (i < mid && compare(chunk, temp[i], temp[j]) <= 0)) {
+                order[k] = temp[i++];
+            } else {
+                order[k] = temp[j++];
+            }
+        }
+    }
+
+    // Merges the given runs into the given sink, combining equal records.
+    private void merge(java.util.List<File> files, Sink sink) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(Math.max(1, files.size()));
+        try {
+            for (File file : files) {
+                RunReader reader = new RunReader(file);
+                if (reader.next()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+            char[] key = new char[windowLength + 1];
+            int count = 0;
+            long firstPosition = 0;
+            boolean pending = false;
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                if (pending && Arrays.equals(key, reader.key)) {
+                    count += reader.count;
+                    firstPosition = Math.min(firstPosition, reader.firstPosition);
+                } else {
+                    if (pending) sink.add(key, 0, count, firstPosition);
+                    System.arraycopy(reader.key, 0, key, 0, key.length);
+                    count = reader.count;
+                    firstPosition = reader.firstPosition;
+                    pending = true;
+                }
+                if (reader.next()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+            if (pending) sink.add(key, 0, count, firstPosition);
+            sink.finish();
+        } finally {
+            for (RunReader reader : queue) {
+                reader.close();
+            }
+        }
+    }
+
+    // Creates a new run file
+    private File newRunFile() throws IOException {
+        File file = File.createTempFile("run", ".tmp", tempDir);
+        file.deleteOnExit();
+        return file;
+    }
+
+    // Opens the given run file for writing
+    private DataOutputStream openRun(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), runBufferSize));
+    }
+
+    // Receives combined records in increasing order of (window, successor)
+    private interface Sink {
+        // Adds the record whose window and successor are the windowLength + 1 chars of key from the given index
+        void add(char[] key, int from, int count, long firstPosition) throws IOException;
+
+        // Called after the last record
+        void finish() throws IOException;
+    }
+
+    // Writes records to a run file: the window and the successor, the count, and the first position
+    private class RunSink implements Sink {
+        private final DataOutputStream out;
+
+        RunSink(DataOutputStream out) {
+            this.out = out;
+        }
+
+        public void add(char[] key, int from, int count, long firstPosition) throws IOException {
+            for (int i = 0; i <= windowLength; i++) {
+                out.writeChar(key[from + i]);
+            }
+            out.writeInt(count);
+            out.writeLong(firstPosition);
+        }
+
+        public void finish() {
+        }
+    }
+
+    // Writes the windows to a snapshot: collects the successors of each window, and writes the
+    // window when the next one starts, with its successors in list order
+    private class SnapshotSink implements Sink {
+        private final SnapshotWriter writer;
+        private final char[] window = new char[windowLength];
+        private char[] chars = new char[16];
+        private int[] counts = new int[16];
+        private long[] firstPositions = new long[16];
+        private int size;
+
+        SnapshotSink(SnapshotWriter writer) {
+            this.writer = writer;
+        }
+
+        public void add(char[] key, int from, int count, long firstPosition) {
+            boolean sameWindow = size > 0;
+            for (int i = 0; i < windowLength && sameWindow; i++) {
+                sameWindow = key[from + i] == window[i];
+            }
+            if (!sameWindow) {
+                finish();
+                System.arraycopy(key, from, window, 0, windowLength);
+            }
+            if (size == chars.length) {
+                chars = Arrays.copyOf(chars, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+                firstPositions = Arrays.copyOf(firstPositions, size * 2);
+            }
+            chars[size] = key[from + windowLength];
+            counts[size] = count;
+            firstPositions[size] = firstPosition;
+            size++;
+        }
+
+        public void finish() {
+            if (size == 0) return;
+            // A List adds new characters at its front, so the last one to first occur comes first
+            for (int i = 1; i < size; i++) {
+                char c = chars[i];
+                int count = counts[i];
+                long position = firstPositions[i];
+                int j = i - 1;
+                while (j >= 0 && firstPositions[j] < position) {
+                    chars[j + 1] = chars[j];
+                    counts[j + 1] = counts[j];
+                    firstPositions[j + 1] = firstPositions[j];
+                    j--;
+                }
+                chars[j + 1] = c;
+                counts[j + 1] = count;
+                firstPositions[j + 1] = position;
+            }
+            writer.add(new String(window), chars, counts, size);
+            size = 0;
+        }
+    }
+
+    // Reads the records of a run file, one at a time
+    private class RunReader implements Comparable<RunReader> {
+        private final DataInputStream in;
+        final char[] key = new char[windowLength + 1];
+        int count;
+        long firstPosition;
+
+        RunReader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), runBufferSize));
+        }
+
+        // Reads the next record. Returns false at the end of the run.
+        boolean next() throws IOException {
+            try {
+                key[0] = in.readChar();
+            } catch (EOFException e) {
+                return false;
+            }
+            for (int i = 1; i <= windowLength; i++) {
+                key[i] = in.readChar();
+            }
+            count = in.readInt();
+            firstPosition = in.readLong();
+            return true;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+
+        public int compareTo(RunReader other) {
+            return Arrays.compare(key, other.key);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/** A request to generate one random text: the text to start with, the total length of the
+ *  text, and the seed of the random number generator that the text is drawn from. */
+public class GenerationRequest {
+
+    // The text to start with
+    private final String initialText;
+
+    // The total length of the text to generate
+    private final int textLength;
+
+    // The seed of the random number generator of this request
+    private final long seed;
+
+    /** Constructs a request for a text of the given length, that starts with the given
+     *  text and is drawn from a random number generator with the given seed. */
+    public GenerationRequest(String initialText, int textLength, long seed) {
+        if (initialText == null) throw new IllegalArgumentException("initial text is null");
+        this.initialText = initialText;
+        this.textLength = textLength;
+        this.seed = seed;
+    }
+
+    /** Returns the text to start with. */
+    public String getInitialText() {
+        return initialText;
+    }
+
+    /** Returns the total length of the text to generate. */
+    public int getTextLength() {
+        return textLength;
+    }
+
+    /** Returns the seed of the random number generator of this request. */
+    public long getSeed() {
+        return seed;
+    }
+
+    /** Returns a string representing this request. */
+    public String toString() {
+        return "(" + initialText + " " + textLength + " " + seed + ")";
+    }
+}
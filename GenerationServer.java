@@ -0,0 +1,256 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/** Serves texts of one trained model over HTTP on the local machine, so a model is trained once
+ *  and then answers many requests, instead of training again for every text.
+ *  A request is GET /generate?text=...&length=...&seed=... (the seed is optional), and the answer
+ *  is the generated text, in UTF-8. Every exchange is handled by its own thread, which puts the
+ *  request in a queue and waits for its text. A single batching thread takes the waiting requests
+ *  from the queue, up to MAX_BATCH at a time, and generates them together with a BatchGenerator,
+ *  so concurrent small requests share the cost of a fork-join round. A request with a seed gets
+ *  the same text as BatchGenerator gives it, whatever batch it is in. */
+public class GenerationServer {
+
+    // The largest number of requests that are generated together
+    static final int MAX_BATCH = 64;
+
+    // How long the batching thread waits for more requests once it has one, in microseconds
+    static final long BATCH_DELAY_MICROS = 200;
+
+    // The longest text that a request may ask for
+    static final int MAX_TEXT_LENGTH = 1 << 20;
+
+    // A request that waits for its text
+    private static class PendingRequest {
+        final GenerationRequest request;
+        final CompletableFuture<String> text = new CompletableFuture<String>();
+
+        PendingRequest(GenerationRequest request) {
+            this.request = request;
+        }
+    }
+
+    // Generates the texts of the batches
+    private final BatchGenerator generator;
+
+    // The pool that the batches are generated in
+    private final ForkJoinPool pool;
+
+    // The requests that wait to be batched
+    private final LinkedBlockingQueue<PendingRequest> queue;
+
+    // The HTTP server, and the threads that handle its exchanges
+    private final HttpServer server;
+    private final ExecutorService handlers;
+
+    // The batching thread
+    private final Thread batcher;
+
+    // The number of batches, and of requests, that were generated
+    private volatile long batches;
+    private volatile long requests;
+
+    /** Constructs a server of the given frozen model, that listens on the given local port
+     *  (0 for any free port) and generates with the given number of threads. Call start() to serve. */
+    public GenerationServer(CompiledModel model, int port, int threads) {
+        generator = new BatchGenerator(model, threads);
+        pool = new ForkJoinPool(threads);
+        queue = new LinkedBlockingQueue<PendingRequest>();
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch (IOException ioe) {
+            throw new IllegalArgumentException("Could not listen on port " + port, ioe);
+        }
+        server.createContext("/generate", this::handle);
+        handlers = Executors.newCachedThreadPool();
+        server.setExecutor(handlers);
+        batcher = new Thread(this::runBatches, "batcher");
+        batcher.setDaemon(true);
+    }
+
+    /** Starts serving requests. */
+    public void start() {
+        batcher.start();
+        server.start();
+    }
+
+    /** Stops serving requests, and releases the port and the threads of this server. */
+    public void stop() {
+        server.stop(0);
+        batcher.interrupt();
+        handlers.shutdownNow();
+        pool.shutdown();
+    }
+
+    /** Turns TCP_NODELAY on or off for the HTTP servers of this process. Without it, a small answer
+     *  waits for the client's delayed ACK (about 40 ms). The JDK reads this setting once, for every
+     *  HttpServer in the process, so it must be called before the first server is constructed. */
+    public static void setNoDelay(boolean noDelay) {
+        System.setProperty("sun.net.httpserver.nodelay", String.valueOf(noDelay));
+    }
+
+    /** Returns the port that this server listens on. */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /** Returns the number of batches that were generated. */
+    public long getBatches() {
+        return batches;
+    }
+
+    /** Returns the number of requests that were generated. */
+    public long getRequests() {
+        return requests;
+    }
+
+    // Returns the number of requests that wait to be batched
+    int getQueued() {
+        return queue.size();
+    }
+
+    /** Puts the given request in the queue, and returns its text when it is generated. */
+    public String generate(GenerationRequest request) {
+        PendingRequest pending = new PendingRequest(request);
+        queue.add(pending);
+        try {
+            return pending.text.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for a text", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("could not generate a text", e.getCause());
+        }
+    }
+
+    // Handles one exchange: parses the request, waits for its text, and sends it.
+    private void handle(HttpExchange exchange) throws IOException {
+        int status = 200;
+        String answer;
+        try {
+            answer = generate(parse(exchange.getRequestURI().getRawQuery()));
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            answer = e.getMessage();
+        } catch (RuntimeException e) {
+            status = 500;
+            answer = String.valueOf(e.getMessage());
+        }
+        byte[] body = answer.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // Parses the query of a request: text (required), length (required) and seed (optional).
+    static GenerationRequest parse(String query) {
+        String text = null;
+        String length = null;
+        String seed = null;
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq < 0) continue;
+                String name = pair.substring(0, eq);
+                String value = URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+                if (name.equals("text")) text = value;
+                else if (name.equals("length")) length = value;
+                else if (name.equals("seed")) seed = value;
+            }
+        }
+        if (text == null || length == null) {
+            throw new IllegalArgumentException("expected /generate?text=...&length=...[&seed=...]");
+        }
+        try {
+            int textLength = Integer.parseInt(length);
+            if (textLength > MAX_TEXT_LENGTH) {
+                throw new IllegalArgumentException("length is larger than " + MAX_TEXT_LENGTH);
+            }
+            long s = (seed == null) ? ThreadLocalRandom.current().nextLong() : Long.parseLong(seed);
+            return new GenerationRequest(text, textLength, s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad number: " + e.getMessage());
+        }
+    }
+
+    // The loop of the batching thread: takes a batch of waiting requests, and generates it.
+    private void runBatches() {
+        ArrayList<PendingRequest> batch = new ArrayList<PendingRequest>(MAX_BATCH);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(BATCH_DELAY_MICROS);
+                while (batch.size() < MAX_BATCH) {
+                    queue.drainTo(batch, MAX_BATCH - batch.size());
+                    long wait = deadline - System.nanoTime();
+                    if (batch.size() == MAX_BATCH || wait <= 0) break;
+                    PendingRequest next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                generate(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // the server was stopped
+        }
+    }
+
+    // Generates the texts of the given batch, and completes its requests.
+    private void generate(ArrayList<PendingRequest> batch) {
+        GenerationRequest[] batchRequests = new GenerationRequest[batch.size()];
+        for (int i = 0; i < batchRequests.length; i++) {
+            batchRequests[i] = batch.get(i).request;
+        }
+        String[] texts;
+        try {
+            texts = generator.generate(batchRequests, pool);
+        } catch (RuntimeException e) {
+            for (PendingRequest pending : batch) {
+                pending.text.completeExceptionally(e);
+            }
+            return;
+        }
+        // Counted before the requests are completed, so a caller that got its text sees its batch
+        batches++;
+        requests += batchRequests.length;
+        for (int i = 0; i < texts.length; i++) {
+            batch.get(i).text.complete(texts[i]);
+        }
+    }
+
+    /** Trains a model on a corpus, and serves it until the process is killed.
+     *  TCP_NODELAY is on unless the noDelay argument is false.
+     *  Usage: java GenerationServer windowLength corpusFile [port] [threads] [noDelay] */
+    public static void main(String[] args) {
+        int windowLength = Integer.parseInt(args[0]);
+        String fileName = args[1];
+        int port = (args.length > 2) ? Integer.parseInt(args[2]) : 8080;
+        int threads = (args.length > 3) ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        setNoDelay((args.length > 4) ? Boolean.parseBoolean(args[4]) : true);
+
+        CompactLanguageModel model = new CompactLanguageModel(windowLength);
+        model.train(fileName);
+        GenerationServer server = new GenerationServer(model.freeze(), port, threads);
+        server.start();
+        System.out.println("Serving " + model.getSize() + " windows on http://localhost:" + server.getPort()
+                + "/generate?text=...&length=...&seed=...");
+    }
+}
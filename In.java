@@ -8,14 +8,21 @@
  ******************************************************************************/
 
 import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.net.URL;
 import java.net.Socket;
 import java.net.URLConnection;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.InputMismatchException;
 import java.util.Locale;
 import java.util.NoSuchElementException;
@@ -45,6 +52,12 @@ import java.util.regex.Pattern;
  *  consist of \n, \r, \r\n, and Unicode hex code points 0x2028, 0x2029, 0x0085;
  *  see <a href="http://www.docjar.com/html/api/java/util/Scanner.java.html">
  *  Scanner.java</a> (NB: Java 6u23 and earlier uses only \r, \r, \r\n).
+ *  <p>
+ *  The {@link Scanner} is created only when a method that needs it is first called.
+ *  Until then, the bulk methods ({@link #read(char[], int, int)}, {@link #readAllChars()},
+ *  {@link #readAll()}, and the {@code readAll...} methods that return arrays) read the
+ *  input directly, in blocks of characters, and split and parse it without regular
+ *  expressions. They return exactly what the {@link Scanner} versions return.
  *
  *  @author David Pritchard
  *  @author Robert Sedgewick
@@ -73,14 +86,20 @@ public final class In {
 
     //// end: section (1 of 2) of code duplicated from In to StdIn.
 
+    // the size of the character buffer of the input, and of the bulk reads
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // the input, read directly by the bulk methods until the scanner is created
+    private Reader reader;
+
+    // the scanner of the input, created on first use (see scanner())
     private Scanner scanner;
 
    /**
      * Initializes an input stream from standard input.
      */
     public In() {
-        scanner = new Scanner(new BufferedInputStream(System.in), CHARSET_NAME);
-        scanner.useLocale(LOCALE);
+        reader = open(new BufferedInputStream(System.in));
     }
 
    /**
@@ -94,8 +113,7 @@ public final class In {
         if (socket == null) throw new IllegalArgumentException("socket argument is null");
         try {
             InputStream is = socket.getInputStream();
-            scanner = new Scanner(new BufferedInputStream(is), CHARSET_NAME);
-            scanner.useLocale(LOCALE);
+            reader = open(new BufferedInputStream(is));
         }
         catch (IOException ioe) {
             throw new IllegalArgumentException("Could not open " + socket, ioe);
@@ -114,8 +132,7 @@ public final class In {
         try {
             URLConnection site = url.openConnection();
             InputStream is     = site.getInputStream();
-            scanner            = new Scanner(new BufferedInputStream(is), CHARSET_NAME);
-            scanner.useLocale(LOCALE);
+            reader            = open(new BufferedInputStream(is));
         }
         catch (IOException ioe) {
             throw new IllegalArgumentException("Could not open " + url, ioe);
@@ -135,8 +152,7 @@ public final class In {
             // for consistency with StdIn, wrap with BufferedInputStream instead of use
             // file as argument to Scanner
             FileInputStream fis = new FileInputStream(file);
-            scanner = new Scanner(new BufferedInputStream(fis), CHARSET_NAME);
-            scanner.useLocale(LOCALE);
+            reader = open(new BufferedInputStream(fis));
         }
         catch (IOException ioe) {
             throw new IllegalArgumentException("Could not open " + file, ioe);
@@ -162,8 +178,7 @@ public final class In {
                 // for consistency with StdIn, wrap with BufferedInputStream instead of use
                 // file as argument to Scanner
                 FileInputStream fis = new FileInputStream(file);
-                scanner = new Scanner(new BufferedInputStream(fis), CHARSET_NAME);
-                scanner.useLocale(LOCALE);
+                reader = open(new BufferedInputStream(fis));
                 return;
             }
 
@@ -187,8 +202,7 @@ public final class In {
             // site.addRequestProperty("User-Agent", "Mozilla/4.76");
 
             InputStream is     = site.getInputStream();
-            scanner            = new Scanner(new BufferedInputStream(is), CHARSET_NAME);
-            scanner.useLocale(LOCALE);
+            reader            = open(new BufferedInputStream(is));
         }
         catch (IOException ioe) {
             throw new IllegalArgumentException("Could not open " + name, ioe);
@@ -216,7 +230,27 @@ public final class In {
      * @return {@code true} if this input stream exists; {@code false} otherwise
      */
     public boolean exists()  {
-        return scanner != null;
+        return scanner != null || reader != null;
+    }
+
+    // Returns a buffered reader that decodes the given stream.
+    private static Reader open(InputStream is) {
+        return new BufferedReader(new InputStreamReader(is, Charset.forName(CHARSET_NAME)), BUFFER_SIZE);
+    }
+
+    // Returns the scanner of this input stream, and creates it if needed. Once the scanner
+    // exists, it holds buffered input, so all the methods read through it.
+    private Scanner scanner() {
+        if (scanner == null) {
+            scanner = new Scanner(reader);
+            scanner.useLocale(LOCALE);
+        }
+        return scanner;
+    }
+
+    // Checks if the bulk methods can read the input directly.
+    private boolean isDirect() {
+        return scanner == null;
     }
 
     ////  begin: section (2 of 2) of code duplicated from In to StdIn,
@@ -231,7 +265,7 @@ public final class In {
      *         {@code false} otherwise
      */
     public boolean isEmpty() {
-        return !scanner.hasNext();
+        return !scanner().hasNext();
     }
 
    /**
@@ -244,7 +278,7 @@ public final class In {
      *         {@code false} otherwise
      */
     public boolean hasNextLine() {
-        return scanner.hasNextLine();
+        return scanner().hasNextLine();
     }
 
     /**
@@ -256,9 +290,9 @@ public final class In {
      *         {@code false} otherwise
      */
     public boolean hasNextChar() {
-        scanner.useDelimiter(EMPTY_PATTERN);
-        boolean result = scanner.hasNext();
-        scanner.useDelimiter(WHITESPACE_PATTERN);
+        scanner().useDelimiter(EMPTY_PATTERN);
+        boolean result = scanner().hasNext();
+        scanner().useDelimiter(WHITESPACE_PATTERN);
         return result;
     }
 
@@ -271,7 +305,7 @@ public final class In {
     public String readLine() {
         String line;
         try {
-            line = scanner.nextLine();
+            line = scanner().nextLine();
         }
         catch (NoSuchElementException e) {
             line = null;
@@ -286,12 +320,12 @@ public final class In {
      * @throws NoSuchElementException if the input stream is empty
      */
     public char readChar() {
-        scanner.useDelimiter(EMPTY_PATTERN);
+        scanner().useDelimiter(EMPTY_PATTERN);
         try {
-            String ch = scanner.next();
+            String ch = scanner().next();
             assert ch.length() == 1 : "Internal (Std)In.readChar() error!"
                 + " Please contact the authors.";
-            scanner.useDelimiter(WHITESPACE_PATTERN);
+            scanner().useDelimiter(WHITESPACE_PATTERN);
             return ch.charAt(0);
         }
         catch (NoSuchElementException e) {
@@ -301,18 +335,68 @@ public final class In {
     }
 
 
+    /**
+     * Reads up to {@code len} characters of this input stream into the given array,
+     * starting at index {@code off}. Like {@link #readChar()}, consumes nothing extra.
+     *
+     * @param  buf the array to read into
+     * @param  off the index of the first character to read into
+     * @param  len the largest number of characters to read
+     * @return the number of characters read, or -1 if this input stream is empty
+     * @throws IndexOutOfBoundsException if {@code off} and {@code len} are not within {@code buf}
+     */
+    public int read(char[] buf, int off, int len) {
+        if (off < 0 || len < 0 || len > buf.length - off)
+            throw new IndexOutOfBoundsException("off: " + off + ", len: " + len + ", length: " + buf.length);
+        if (len == 0)
+            return 0;
+        if (!isDirect()) {
+            int n = 0;
+            while (n < len && hasNextChar())
+                buf[off + n++] = readChar();
+            return (n == 0) ? -1 : n;
+        }
+        try {
+            return reader.read(buf, off, len);
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Reads the remainder of this input stream into a character buffer.
+     * The buffer's position is 0 and its limit is the number of characters read.
+     *
+     * @return the remainder of this input stream, as a character buffer
+     */
+    public CharBuffer readAllChars() {
+        char[] buf = new char[BUFFER_SIZE];
+        int n = 0;
+        int r;
+        while ((r = read(buf, n, buf.length - n)) != -1) {
+            n += r;
+            if (n == buf.length)
+                buf = Arrays.copyOf(buf, 2 * n);
+        }
+        return CharBuffer.wrap(buf, 0, n);
+    }
+
    /**
      * Reads and returns the remainder of this input stream, as a string.
      *
      * @return the remainder of this input stream, as a string
      */
     public String readAll() {
-        if (!scanner.hasNextLine())
+        if (isDirect())
+            return readAllChars().toString();
+
+        if (!scanner().hasNextLine())
             return "";
 
-        String result = scanner.useDelimiter(EVERYTHING_PATTERN).next();
+        String result = scanner().useDelimiter(EVERYTHING_PATTERN).next();
         // not that important to reset delimeter, since now scanner is empty
-        scanner.useDelimiter(WHITESPACE_PATTERN); // but let's do it anyway
+        scanner().useDelimiter(WHITESPACE_PATTERN); // but let's do it anyway
         return result;
     }
 
@@ -325,7 +409,7 @@ public final class In {
      */
     public String readString() {
         try {
-            return scanner.next();
+            return scanner().next();
         }
         catch (NoSuchElementException e) {
             throw new NoSuchElementException("attempts to read a 'String' value from the input stream, "
@@ -343,10 +427,10 @@ public final class In {
      */
     public int readInt() {
         try {
-            return scanner.nextInt();
+            return scanner().nextInt();
         }
         catch (InputMismatchException e) {
-            String token = scanner.next();
+            String token = scanner().next();
             throw new InputMismatchException("attempts to read an 'int' value from the input stream, "
                                            + "but the next token is \"" + token + "\"");
         }
@@ -366,10 +450,10 @@ public final class In {
      */
     public double readDouble() {
         try {
-            return scanner.nextDouble();
+            return scanner().nextDouble();
         }
         catch (InputMismatchException e) {
-            String token = scanner.next();
+            String token = scanner().next();
             throw new InputMismatchException("attempts to read a 'double' value from the input stream, "
                                            + "but the next token is \"" + token + "\"");
         }
@@ -389,10 +473,10 @@ public final class In {
      */
     public float readFloat() {
         try {
-            return scanner.nextFloat();
+            return scanner().nextFloat();
         }
         catch (InputMismatchException e) {
-            String token = scanner.next();
+            String token = scanner().next();
             throw new InputMismatchException("attempts to read a 'float' value from the input stream, "
                                            + "but the next token is \"" + token + "\"");
         }
@@ -412,10 +496,10 @@ public final class In {
      */
     public long readLong() {
         try {
-            return scanner.nextLong();
+            return scanner().nextLong();
         }
         catch (InputMismatchException e) {
-            String token = scanner.next();
+            String token = scanner().next();
             throw new InputMismatchException("attempts to read a 'long' value from the input stream, "
                                            + "but the next token is \"" + token + "\"");
         }
@@ -435,10 +519,10 @@ public final class In {
      */
     public short readShort() {
         try {
-            return scanner.nextShort();
+            return scanner().nextShort();
         }
         catch (InputMismatchException e) {
-            String token = scanner.next();
+            String token = scanner().next();
             throw new InputMismatchException("attempts to read a 'short' value from the input stream, "
                                            + "but the next token is \"" + token + "\"");
         }
@@ -460,10 +544,10 @@ public final class In {
      */
     public byte readByte() {
         try {
-            return scanner.nextByte();
+            return scanner().nextByte();
         }
         catch (InputMismatchException e) {
-            String token = scanner.next();
+            String token = scanner().next();
             throw new InputMismatchException("attempts to read a 'byte' value from the input stream, "
                                            + "but the next token is \"" + token + "\"");
         }
@@ -505,6 +589,14 @@ public final class In {
      * @return all remaining tokens in this input stream, as an array of strings
      */
     public String[] readAllStrings() {
+        if (isDirect()) {
+            Tokenizer tokens = new Tokenizer(readAllChars());
+            ArrayList<String> strings = new ArrayList<String>();
+            while (tokens.next())
+                strings.add(tokens.token());
+            return strings.toArray(new String[0]);
+        }
+
         // we could use readAll.trim().split(), but that's not consistent
         // since trim() uses characters 0x00..0x20 as whitespace
         String[] tokens = WHITESPACE_PATTERN.split(readAll());
@@ -523,6 +615,9 @@ public final class In {
      * @return all remaining lines in this input stream, as an array of strings
      */
     public String[] readAllLines() {
+        if (isDirect())
+            return splitLines(readAllChars());
+
         ArrayList<String> lines = new ArrayList<String>();
         while (hasNextLine()) {
             lines.add(readLine());
@@ -538,6 +633,18 @@ public final class In {
      * @return all remaining lines in this input stream, as an array of integers
      */
     public int[] readAllInts() {
+        if (isDirect()) {
+            Tokenizer tokens = new Tokenizer(readAllChars());
+            int[] vals = new int[16];
+            int n = 0;
+            while (tokens.next()) {
+                if (n == vals.length)
+                    vals = Arrays.copyOf(vals, 2 * n);
+                vals[n++] = tokens.parseInt();
+            }
+            return Arrays.copyOf(vals, n);
+        }
+
         String[] fields = readAllStrings();
         int[] vals = new int[fields.length];
         for (int i = 0; i < fields.length; i++)
@@ -552,6 +659,18 @@ public final class In {
      * @return all remaining lines in this input stream, as an array of longs
      */
     public long[] readAllLongs() {
+        if (isDirect()) {
+            Tokenizer tokens = new Tokenizer(readAllChars());
+            long[] vals = new long[16];
+            int n = 0;
+            while (tokens.next()) {
+                if (n == vals.length)
+                    vals = Arrays.copyOf(vals, 2 * n);
+                vals[n++] = tokens.parseLong();
+            }
+            return Arrays.copyOf(vals, n);
+        }
+
         String[] fields = readAllStrings();
         long[] vals = new long[fields.length];
         for (int i = 0; i < fields.length; i++)
@@ -566,6 +685,18 @@ public final class In {
      * @return all remaining lines in this input stream, as an array of doubles
      */
     public double[] readAllDoubles() {
+        if (isDirect()) {
+            Tokenizer tokens = new Tokenizer(readAllChars());
+            double[] vals = new double[16];
+            int n = 0;
+            while (tokens.next()) {
+                if (n == vals.length)
+                    vals = Arrays.copyOf(vals, 2 * n);
+                vals[n++] = tokens.parseDouble();
+            }
+            return Arrays.copyOf(vals, n);
+        }
+
         String[] fields = readAllStrings();
         double[] vals = new double[fields.length];
         for (int i = 0; i < fields.length; i++)
@@ -575,11 +706,145 @@ public final class In {
 
     ///// end: section (2 of 2) of code duplicated from In to StdIn */
 
+    // Splits the given characters into lines, like repeated calls to Scanner.nextLine():
+    // a line ends with \r\n, \n, \r, \u2028, \u2029 or \u0085, and the end of the input
+    // ends the last line only if it is not empty.
+    private static String[] splitLines(CharBuffer chars) {
+        char[] buf = chars.array();
+        int limit = chars.limit();
+        ArrayList<String> lines = new ArrayList<String>();
+        int start = 0;
+        for (int i = 0; i < limit; i++) {
+            char c = buf[i];
+            if (c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029' || c == '\u0085') {
+                lines.add(new String(buf, start, i - start));
+                if (c == '\r' && i + 1 < limit && buf[i + 1] == '\n')
+                    i++;
+                start = i + 1;
+            }
+        }
+        if (start < limit)
+            lines.add(new String(buf, start, limit - start));
+        return lines.toArray(new String[0]);
+    }
+
+    // Splits characters into tokens separated by whitespace (as in Character.isWhitespace),
+    // and parses tokens without creating strings when they are short decimal numbers.
+    private static final class Tokenizer {
+
+        // the largest powers of 10 that are exact doubles
+        private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+        };
+
+        // returned by parseDecimal when a token is not a short decimal number
+        private static final long NOT_SHORT = Long.MIN_VALUE;
+
+        private final char[] buf;
+        private final int limit;
+
+        // the current token is buf[start, end)
+        private int start;
+        private int end;
+
+        // the number of digits after the decimal point of the last parsed decimal
+        private int scale;
+
+        Tokenizer(CharBuffer chars) {
+            buf = chars.array();
+            limit = chars.limit();
+        }
+
+        // advances to the next token; returns false if there are no more tokens
+        boolean next() {
+            int i = end;
+            while (i < limit && Character.isWhitespace(buf[i]))
+                i++;
+            if (i == limit)
+                return false;
+            start = i;
+            while (i < limit && !Character.isWhitespace(buf[i]))
+                i++;
+            end = i;
+            return true;
+        }
+
+        String token() {
+            return new String(buf, start, end - start);
+        }
+
+        // parses the token like Integer.parseInt
+        int parseInt() {
+            long value = parseDecimal(10, false);
+            if (value != NOT_SHORT && value == (int) value)
+                return (int) value;
+            return Integer.parseInt(token());
+        }
+
+        // parses the token like Long.parseLong
+        long parseLong() {
+            long value = parseDecimal(18, false);
+            return (value != NOT_SHORT) ? value : Long.parseLong(token());
+        }
+
+        // parses the token like Double.parseDouble. A decimal of at most 15 digits is an
+        // exact long divided by an exact power of 10, so one division rounds it correctly.
+        double parseDouble() {
+            long value = parseDecimal(15, true);
+            if (value != NOT_SHORT) {
+                double d = Math.abs(value) / POWERS_OF_TEN[scale];
+                return (buf[start] == '-') ? -d : d;
+            }
+            return Double.parseDouble(token());
+        }
+
+        // parses a token of an optional sign and 1 to maxDigits ASCII digits (with an optional
+        // decimal point if allowed, whose position is left in scale); returns NOT_SHORT for others
+        private long parseDecimal(int maxDigits, boolean allowPoint) {
+            int i = start;
+            boolean negative = false;
+            if (buf[i] == '-' || buf[i] == '+') {
+                negative = buf[i] == '-';
+                i++;
+            }
+            long value = 0;
+            int digits = 0;
+            int point = -1;
+            for (; i < end; i++) {
+                char c = buf[i];
+                if (c >= '0' && c <= '9') {
+                    value = value * 10 + (c - '0');
+                    digits++;
+                }
+                else if (c == '.' && allowPoint && point < 0) {
+                    point = i;
+                }
+                else {
+                    return NOT_SHORT;
+                }
+            }
+            if (digits == 0 || digits > maxDigits)
+                return NOT_SHORT;
+            scale = (point < 0) ? 0 : end - point - 1;
+            return negative ? -value : value;
+        }
+    }
+
    /**
      * Closes this input stream.
      */
     public void close() {
-        scanner.close();
+        if (scanner != null) {
+            scanner.close();
+            return;
+        }
+        try {
+            reader.close();
+        }
+        catch (IOException ioe) {
+            // nothing to do, the input was only read
+        }
     }
 
     /**
@@ -1,4 +1,8 @@
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Random;
 
 public class LanguageModel {
@@ -13,6 +17,12 @@ public class LanguageModel {
     // The random number generator used by this model. 
     private Random randomGenerator; // [cite: 255]
 
+    // The training and generation counters of this model.
+    final ModelMetrics metrics;
+
+    // The number of characters that trainMapped decodes at a time.
+    static final int BUFFER_SIZE = 1 << 16;
+
     /** Constructs a language model with the given window length and a given
      * seed value. Generating texts from this model multiple times with the 
      * same seed value will produce the same random texts. Good for debugging. */
@@ -20,6 +30,7 @@ public class LanguageModel {
         this.windowLength = windowLength;
         randomGenerator = new Random(seed);
         CharDataMap = new HashMap<String, List>();
+        metrics = new ModelMetrics(windowLength);
     }
 
     /** Constructs a language model with the given window length.
@@ -29,6 +40,12 @@ public class LanguageModel {
         this.windowLength = windowLength;
         randomGenerator = new Random();
         CharDataMap = new HashMap<String, List>();
+        metrics = new ModelMetrics(windowLength);
+    }
+
+    /** Returns the training and generation counters of this model. */
+    public ModelMetrics getMetrics() {
+        return metrics;
     }
 
     /** Builds a language model from the text in the given file (the corpus). */
@@ -36,6 +53,7 @@ public class LanguageModel {
         String window = "";
         char c;
         In in = new In(fileName); // [cite: 379]
+        metrics.trainingStarted();
 
         // Reads just enough characters to form the first window.
         for (int i = 0; i < windowLength; i++) { // [cite: 380-381]
@@ -44,6 +62,10 @@ public class LanguageModel {
             }
         }
 
+        // The counts that are not yet reported to the metrics
+        int chars = window.length();
+        long entries = 0;
+
         // Processes the entire text, one character at a time
         while (!in.isEmpty()) { // [cite: 382]
             // Gets the next character
@@ -60,16 +82,208 @@ public class LanguageModel {
             }
 
             // Calculates the counts of the current character.
+            int size = probs.getSize();
             probs.update(c); // [cite: 397]
+            entries += probs.getSize() - size;
 
             // Advances the window: adds c to the window's end, and deletes the window's first character.
             window = window.substring(1) + c; // [cite: 398-399]
+
+            if (++chars == ModelMetrics.FLUSH_INTERVAL) {
+                metrics.ingested(chars, CharDataMap.size(), entries);
+                chars = 0;
+            }
         }
+        metrics.ingested(chars, CharDataMap.size(), entries);
 
         // The entire file has been processed, and all the characters have been counted.
         // Proceeds to compute and set the p and cp fields of all the CharData objects in each linked list in the map.
+        finishTraining();
+    }
+
+    // Computes the probabilities of all the lists, and reports the time and the list lengths to the metrics.
+    private void finishTraining() {
+        metrics.ingestFinished();
+        long start = System.nanoTime();
+        long[] lengths = new long[ModelMetrics.LENGTH_BUCKETS];
         for (List probs : CharDataMap.values()) { // [cite: 403-405]
             calculateProbabilities(probs);
+            lengths[ModelMetrics.bucketOf(probs.getSize())]++;
+        }
+        metrics.trainingFinished(System.nanoTime() - start, lengths);
+    }
+
+    /** Builds a language model from the text in the given file (the corpus).
+     *  Produces the same map as train, but memory-maps the file and decodes it in bulk
+     *  instead of reading it one character at a time through In. Use it for large corpora.
+     *  The window is a WindowKey that is updated in place, and windows are looked up in a
+     *  ContextTable, so a String key is created only for a window that is seen for the first time. */
+    public void trainMapped(String fileName) {
+        WindowKey window = new WindowKey(windowLength);
+        ContextTable contexts = new ContextTable(windowLength);
+        List[] lists = new List[ContextTable.INITIAL_CAPACITY];
+        char[] buffer = new char[BUFFER_SIZE];
+        CorpusReader reader = new CorpusReader(fileName);
+        long entries = 0;
+        int n;
+        metrics.trainingStarted();
+
+        // Processes the entire text, one buffer at a time
+        while ((n = reader.read(buffer)) > 0) {
+            for (int i = 0; i < n; i++) {
+                char c = buffer[i];
+
+                // The first windowLength characters only form the first window.
+                if (!window.isFull()) {
+                    window.add(c);
+                    continue;
+                }
+
+                int id = contexts.find(window);
+                if (id == -1) {
+                    // A new window: adds it to the table and to the map
+                    id = contexts.add(window);
+                    if (id == lists.length) {
+                        lists = Arrays.copyOf(lists, id * 2);
+                    }
+                    lists[id] = new List();
+                    CharDataMap.put(contexts.keyAt(id), lists[id]);
+                }
+                int size = lists[id].getSize();
+                lists[id].update(c);
+                entries += lists[id].getSize() - size;
+                window.add(c);
+            }
+            metrics.ingested(n, CharDataMap.size(), entries);
+        }
+        reader.close();
+
+        finishTraining();
+    }
+
+    /** Returns an immutable copy of this trained model, that can generate texts from many threads
+     *  at once (see CompiledModel). Its lists keep the order of the lists of this model, so with
+     *  a generator that is seeded like this model, it generates the same texts. */
+    public CompiledModel freeze() {
+        CompactLanguageModel model = new CompactLanguageModel(windowLength);
+        WindowKey window = new WindowKey(windowLength);
+        for (String key : CharDataMap.keySet()) {
+            window.clear();
+            for (int i = 0; i < windowLength; i++) {
+                window.add(key.charAt(i));
+            }
+            // New characters are added at the front of a list, so the list is replayed from its end.
+            List probs = CharDataMap.get(key);
+            CharData[] entries = new CharData[probs.getSize()];
+            ListIterator it = probs.listIterator(0);
+            for (int i = 0; it.hasNext(); i++) {
+                entries[i] = it.next();
+            }
+            for (int i = entries.length - 1; i >= 0; i--) {
+                model.update(window, entries[i].chr, entries[i].count);
+            }
+        }
+        return new CompiledModel(model);
+    }
+
+    /** Prunes the trained model, to bound its memory: removes the windows that were seen fewer
+     *  than minCount times, and keeps only the topK most frequent characters of each window
+     *  (of characters with equal counts, the ones that come first in the list are kept).
+     *  Then, so that generate never reaches a removed window, removes every character that leads
+     *  to a removed window (the window made of its window without the first character, followed by
+     *  the character); a window that is left with no characters is removed as well, and so on.
+     *  Generating stops at a removed window exactly as it stops at a window that was never seen.
+     *  Finally, computes the probabilities of the remaining characters again, so every list sums to 1.
+     *  Returns the estimated number of heap bytes that were freed. */
+    public long prune(int minCount, int topK) {
+        if (topK < 1) throw new IllegalArgumentException("topK must be positive: " + topK);
+        long contextsBefore = CharDataMap.size();
+        long entriesBefore = 0;
+        HashSet<String> removed = new HashSet<String>();
+        Iterator<Map.Entry<String, List>> entries = CharDataMap.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, List> entry = entries.next();
+            List probs = entry.getValue();
+            entriesBefore += probs.getSize();
+            if (totalCount(probs) < minCount) {
+                removed.add(entry.getKey());
+                entries.remove();
+            } else if (probs.getSize() > topK) {
+                keepTop(probs, topK);
+            }
+        }
+
+        // Removes the characters that lead to removed windows, until no window is removed
+        boolean changed = !removed.isEmpty();
+        while (changed) {
+            changed = false;
+            entries = CharDataMap.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, List> entry = entries.next();
+                String suffix = entry.getKey().substring(1);
+                List probs = entry.getValue();
+                for (int i = probs.getSize() - 1; i >= 0; i--) {
+                    char chr = probs.get(i).chr;
+                    if (removed.contains(suffix + chr)) {
+                        probs.remove(chr);
+                    }
+                }
+                if (probs.getSize() == 0) {
+                    removed.add(entry.getKey());
+                    entries.remove();
+                    changed = true;
+                }
+            }
+        }
+
+        long entriesAfter = 0;
+        long[] lengths = new long[ModelMetrics.LENGTH_BUCKETS];
+        for (List probs : CharDataMap.values()) {
+            calculateProbabilities(probs);
+            entriesAfter += probs.getSize();
+            lengths[ModelMetrics.bucketOf(probs.getSize())]++;
+        }
+        metrics.pruned(CharDataMap.size(), entriesAfter, lengths);
+        return ModelMetrics.estimateFootprint(windowLength, contextsBefore, entriesBefore)
+                - ModelMetrics.estimateFootprint(windowLength, CharDataMap.size(), entriesAfter);
+    }
+
+    // Returns the sum of the counts of the given list.
+    private static int totalCount(List probs) {
+        int total = 0;
+        ListIterator it = probs.listIterator(0);
+        while (it.hasNext()) {
+            total += it.next().count;
+        }
+        return total;
+    }
+
+    // Removes all but the topK most frequent characters of the given list.
+    private static void keepTop(List probs, int topK) {
+        int[] counts = new int[probs.getSize()];
+        ListIterator it = probs.listIterator(0);
+        for (int i = 0; it.hasNext(); i++) {
+            counts[i] = it.next().count;
+        }
+        int[] sorted = counts.clone();
+        Arrays.sort(sorted);
+        int threshold = sorted[sorted.length - topK];
+        // The number of characters with the threshold count that can be kept
+        int ties = topK;
+        for (int count : counts) {
+            if (count > threshold) ties--;
+        }
+        char[] drop = new char[counts.length - topK];
+        int dropped = 0;
+        it = probs.listIterator(0);
+        for (int i = 0; it.hasNext(); i++) {
+            char chr = it.next().chr;
+            if (counts[i] < threshold || (counts[i] == threshold && ties-- <= 0)) {
+                drop[dropped++] = chr;
+            }
+        }
+        for (char chr : drop) {
+            probs.remove(chr);
         }
     }
 
@@ -107,6 +321,22 @@ public class LanguageModel {
         return probs.get(probs.getSize() - 1).chr;
     }
 
+    // Returns the index in [from, to) of the first of the given counts whose cumulative probability
+    // is greater than r, or to - 1 if there is no such count. This is the draw of getRandomChar, for
+    // a list that is kept as a range of counts (see CompactLanguageModel): the probabilities are
+    // accumulated in index order, like calculateProbabilities accumulates them, so for the same r
+    // it picks the same element as getRandomChar picks from the equivalent List.
+    static int indexOfCumulative(int[] counts, int from, int to, int total, double r) {
+        double cumulativeProb = 0;
+        for (int e = from; e < to - 1; e++) {
+            cumulativeProb += (double) counts[e] / total;
+            if (cumulativeProb > r) {
+                return e;
+            }
+        }
+        return to - 1;
+    }
+
     /**
      * Generates a random text, based on the probabilities that were learned during training. 
      * @param initialText - text to start with.
@@ -116,12 +346,14 @@ public class LanguageModel {
     public String generate(String initialText, int textLength) { // [cite: 206]
         // If the length of the initial text provided is less than windowLength, terminate.
         if (initialText.length() < windowLength) { // [cite: 227-228]
+            metrics.generated(0, textLength > initialText.length());
             return initialText;
         }
 
         StringBuilder generatedText = new StringBuilder(initialText);
         // Setting the initial window to the last windowLength characters of initialText.
         String window = initialText.substring(initialText.length() - windowLength); // [cite: 230]
+        boolean stoppedEarly = false;
 
         // The process stops when the length of the generated text equals textLength.
         while (generatedText.length() < textLength) { // 
@@ -129,6 +361,7 @@ public class LanguageModel {
             
             // If the current window is not found in the map, stop the process.
             if (probs == null) { // [cite: 233]
+                stoppedEarly = true;
                 break;
             }
 
@@ -139,6 +372,7 @@ public class LanguageModel {
             window = generatedText.substring(generatedText.length() - windowLength); // [cite: 231]
         }
 
+        metrics.generated(generatedText.length() - initialText.length(), stoppedEarly);
         return generatedText.toString();
     }
 
@@ -159,6 +393,26 @@ public class LanguageModel {
         Boolean randomGeneration = args[3].equals("random"); // [cite: 270]
         String fileName = args[4]; // [cite: 270]
 
+        // An optional snapshot: "save file" trains and saves the model, "load file" loads a saved
+        // model instead of training. A loaded model must have the given window length; the corpus
+        // is not read, so it is the caller's job to load a snapshot of the same corpus.
+        if (args.length == 6 || args.length > 7
+                || (args.length == 7 && !args[5].equals("save") && !args[5].equals("load"))) {
+            System.err.println("Usage: java LanguageModel windowLength initialText textLength "
+                    + "(random | fixed) corpusFile [(save | load) snapshotFile]");
+            System.exit(1);
+        }
+        String snapshotMode = (args.length == 7) ? args[5] : null;
+        if ("load".equals(snapshotMode)) {
+            ModelSnapshot snapshot = randomGeneration ? ModelSnapshot.load(args[6]) : ModelSnapshot.load(args[6], 20);
+            if (snapshot.getWindowLength() != windowLength) {
+                throw new IllegalArgumentException("The snapshot " + args[6] + " has window length "
+                        + snapshot.getWindowLength() + ", expected: " + windowLength);
+            }
+            System.out.println(snapshot.generate(initialText, generatedTextLength));
+            return;
+        }
+
         // Create the LanguageModel object
         LanguageModel lm; // [cite: 271]
         if (randomGeneration) {
@@ -167,8 +421,16 @@ public class LanguageModel {
             lm = new LanguageModel(windowLength, 20); // [cite: 273, 275]
         }
 
-        // Trains the model, creating the map.
+        // Trains the model, creating the map. Its progress is visible over JMX, and logged to System.err.
+        lm.getMetrics().register(fileName);
+        java.util.concurrent.ScheduledExecutorService logger = lm.getMetrics().startLogging(10000, System.err);
         lm.train(fileName); // [cite: 276]
+        logger.shutdown();
+
+        // Saves the trained model, so the next run can load it instead of training again.
+        if ("save".equals(snapshotMode)) {
+            ModelSnapshot.save(lm, args[6]);
+        }
 
         // Generates text, and prints it.
         System.out.println(lm.generate(initialText, generatedTextLength)); // [cite: 277-278]
@@ -0,0 +1,561 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/** Measures the performance of training, of finishing the lists, and of generation, and of the
+ *  list operations that they are made of, for the list and model classes of this project.
+ *  Every benchmark runs an operation over and over: first for WARMUP_ITERATIONS iterations that
+ *  are not reported (so the JIT compiles the code), then for MEASURE_ITERATIONS iterations of at
+ *  least ITERATION_MILLIS each. It reports the median time per operation, the throughput in the
+ *  units of the benchmark (characters, draws, ...), and the number of bytes that the measuring
+ *  thread allocated per operation. The result of every operation is added to a sink, so the JIT
+ *  cannot remove the work. Usage: java LanguageModelBenchmark benchmarkName, or all.
+ *  The jmh directory has the same benchmarks as a JMH module (see jmh/pom.xml), which forks a
+ *  fresh JVM per benchmark and reports the allocation rate through the GC profiler. */
+public class LanguageModelBenchmark {
+
+    // The number of iterations that are run before measuring, and that are measured
+    static final int WARMUP_ITERATIONS = 2;
+    static final int MEASURE_ITERATIONS = 3;
+
+    // The shortest duration of a measured iteration, in milliseconds
+    static final int ITERATION_MILLIS = 300;
+
+    // The corpora that training and generation are measured on
+    static final String[] CORPORA = {"shakespeareinlove.txt", "originofspecies.txt"};
+
+    // The list sizes (and context fan-outs) that the list operations are measured at
+    static final int[] LIST_SIZES = {1, 4, 16, 64, 256};
+
+    // The results of all the operations, so they cannot be optimized away
+    static long sink;
+
+    // An operation that is measured. Returns a value that depends on its work.
+    interface Operation {
+        long run();
+    }
+
+    // An operation that changes its state, so every invocation is measured on a fresh state.
+    // Returns a value that depends on its work.
+    interface StatefulOperation<T> {
+        long run(T state);
+    }
+
+    public static void main(String[] args) {
+        String benchmarkName = args[0];
+        switch (benchmarkName) {
+            case "train":
+                benchmarkTrain();
+                break;
+            case "calculateProbabilities":
+                benchmarkCalculateProbabilities();
+                break;
+            case "getRandomChar":
+                benchmarkGetRandomChar();
+                break;
+            case "generate":
+                benchmarkGenerate();
+                break;
+            case "list":
+                benchmarkList();
+                break;
+            case "in":
+                benchmarkIn();
+                break;
+            case "score":
+                benchmarkScore();
+                break;
+            case "attribution":
+                benchmarkAttribution();
+                break;
+            case "tiered":
+                benchmarkTiered();
+                break;
+            case "external":
+                benchmarkExternal();
+                break;
+            case "backoff":
+                benchmarkBackoff();
+                break;
+            case "all":
+                benchmarkTrain();
+                benchmarkCalculateProbabilities();
+                benchmarkGetRandomChar();
+                benchmarkGenerate();
+                benchmarkList();
+                benchmarkIn();
+                benchmarkScore();
+                benchmarkAttribution();
+                benchmarkTiered();
+                benchmarkExternal();
+                benchmarkBackoff();
+                break;
+            default:
+                System.out.println("Unknown benchmark: " + benchmarkName);
+                return;
+        }
+        // Printing the sink keeps it alive
+        System.out.println("(sink " + (sink & 1) + ")");
+    }
+
+    // Benchmarks train, trainMapped and CompactLanguageModel.train on both corpora, for window lengths 1-10
+    public static void benchmarkTrain() {
+        for (String fileName : CORPORA) {
+            long chars = corpusLength(fileName);
+            for (int w = 1; w <= 10; w++) {
+                final int windowLength = w;
+                String params = fileName + " w=" + w;
+                measure("train", params, chars, "chars", () -> {
+                    LanguageModel model = new LanguageModel(windowLength);
+                    model.train(fileName);
+                    return model.CharDataMap.size();
+                });
+                measure("trainMapped", params, chars, "chars", () -> {
+                    LanguageModel model = new LanguageModel(windowLength);
+                    model.trainMapped(fileName);
+                    return model.CharDataMap.size();
+                });
+                measure("compact.train", params, chars, "chars", () -> {
+                    CompactLanguageModel model = new CompactLanguageModel(windowLength);
+                    model.train(fileName);
+                    return model.getSize();
+                });
+            }
+        }
+    }
+
+    // Benchmarks calculateProbabilities of a List, by list size
+    public static void benchmarkCalculateProbabilities() {
+        LanguageModel model = new LanguageModel(1, 20);
+        for (int size : LIST_SIZES) {
+            List list = listOf(size);
+            measure("calculateProbabilities", "List size=" + size, size, "entries", () -> {
+                model.calculateProbabilities(list);
+                return (long) (list.getFirst().cp * 1000);
+            });
+        }
+    }
+
+    // Benchmarks getRandomChar of a List, the same draw over a range of counts (as CompactLanguageModel
+    // draws), and the alias table, by fan-out
+    public static void benchmarkGetRandomChar() {
+        LanguageModel model = new LanguageModel(1, 20);
+        Random random = new Random(20);
+        for (int size : LIST_SIZES) {
+            List list = listOf(size);
+            model.calculateProbabilities(list);
+            char[] chars = new char[size];
+            int[] counts = new int[size];
+            for (int i = 0; i < size; i++) {
+                chars[i] = list.get(i).chr;
+                counts[i] = list.get(i).count;
+            }
+            int total = size * (size + 1) / 2;
+            AliasTable alias = new AliasTable(chars, counts, 0, size);
+            measure("getRandomChar", "List fan-out=" + size, 1, "draws", () -> model.getRandomChar(list));
+            measure("getRandomChar", "counts fan-out=" + size, 1, "draws",
+                    () -> LanguageModel.indexOfCumulative(counts, 0, size, total, random.nextDouble()));
+            measure("AliasTable.sample", "fan-out=" + size, 1, "draws", () -> alias.sample(random.nextDouble()));
+        }
+    }
+
+    // Benchmarks generating a text of 10,000 characters, with each model, on both corpora
+    public static void benchmarkGenerate() {
+        int textLength = 10000;
+        for (String fileName : CORPORA) {
+            // Starts with the first window of the corpus, which is always in the model
+            String initialText = corpusStart(fileName, 7);
+            LanguageModel model = new LanguageModel(initialText.length(), 20);
+            model.train(fileName);
+            CompactLanguageModel compact = new CompactLanguageModel(initialText.length(), 20);
+            compact.train(fileName);
+            CompiledModel compiled = compact.freeze();
+            Random random = new Random(20);
+            String params = fileName + " w=" + initialText.length();
+            measure("generate", "LanguageModel " + params, textLength, "chars",
+                    () -> model.generate(initialText, textLength).length());
+            measure("generate", "CompactLanguageModel " + params, textLength, "chars",
+                    () -> compact.generate(initialText, textLength).length());
+            measure("generate", "CompiledModel " + params, textLength, "chars",
+                    () -> compiled.generate(initialText, textLength, random).length());
+        }
+    }
+
+    // Benchmarks update, indexOf and get of a List, by list size
+    public static void benchmarkList() {
+        for (int size : LIST_SIZES) {
+            List list = listOf(size);
+            // New characters are added at the front, so the first character that was added is the last one
+            char last = '!';
+            String params = " size=" + size;
+            // Updating changes the list, so every update is measured on a fresh copy
+            measure("List.update", "last" + params, 1, "ops", () -> listOf(size), fresh -> {
+                fresh.update(last);
+                return fresh.getSize();
+            });
+            measure("List.indexOf", "last" + params, 1, "ops", () -> list.indexOf(last));
+            measure("List.get", "middle" + params, 1, "ops", () -> list.get(size / 2).count);
+        }
+    }
+
+    // Benchmarks reading the corpora with In: through its Scanner, and with its direct bulk methods
+    public static void benchmarkIn() {
+        for (String fileName : CORPORA) {
+            long chars = new In(fileName).readAll().length();
+            measure("In.readChar", "scanner " + fileName, chars, "chars", () -> {
+                In in = new In(fileName);
+                long sum = 0;
+                while (in.hasNextChar()) {
+                    sum += in.readChar();
+                }
+                return sum;
+            });
+            measure("In.read(char[])", "direct " + fileName, chars, "chars", () -> {
+                In in = new In(fileName);
+                char[] buffer = new char[LanguageModel.BUFFER_SIZE];
+                long sum = 0;
+                int n;
+                while ((n = in.read(buffer, 0, buffer.length)) != -1) {
+                    sum += buffer[n - 1];
+                }
+                return sum;
+            });
+            measure("In.readAll", "scanner " + fileName, chars, "chars",
+                    () -> scannerIn(fileName).readAll().length());
+            measure("In.readAll", "direct " + fileName, chars, "chars",
+                    () -> new In(fileName).readAll().length());
+            measure("In.readAllLines", "scanner " + fileName, chars, "chars",
+                    () -> scannerIn(fileName).readAllLines().length);
+            measure("In.readAllLines", "direct " + fileName, chars, "chars",
+                    () -> new In(fileName).readAllLines().length);
+            measure("In.readAllStrings", "scanner " + fileName, chars, "chars",
+                    () -> scannerIn(fileName).readAllStrings().length);
+            measure("In.readAllStrings", "direct " + fileName, chars, "chars",
+                    () -> new In(fileName).readAllStrings().length);
+        }
+
+        // Numbers: a file of ints, and a file of doubles with up to 6 decimals
+        try {
+            java.io.File ints = java.io.File.createTempFile("ints", ".txt");
+            java.io.File doubles = java.io.File.createTempFile("doubles", ".txt");
+            ints.deleteOnExit();
+            doubles.deleteOnExit();
+            Random random = new Random(20);
+            try (java.io.PrintWriter intsOut = new java.io.PrintWriter(ints, "UTF-8");
+                 java.io.PrintWriter doublesOut = new java.io.PrintWriter(doubles, "UTF-8")) {
+                for (int i = 0; i < 200000; i++) {
+                    intsOut.println(random.nextInt());
+                    doublesOut.println(String.format(java.util.Locale.US, "%.6f", random.nextGaussian() * 1000));
+                }
+            }
+            String intsName = ints.getPath();
+            String doublesName = doubles.getPath();
+            measure("In.readAllInts", "scanner 200000", 200000, "ints",
+                    () -> scannerIn(intsName).readAllInts().length);
+            measure("In.readAllInts", "direct 200000", 200000, "ints",
+                    () -> new In(intsName).readAllInts().length);
+            measure("In.readAllLongs", "scanner 200000", 200000, "longs",
+                    () -> scannerIn(intsName).readAllLongs().length);
+            measure("In.readAllLongs", "direct 200000", 200000, "longs",
+                    () -> new In(intsName).readAllLongs().length);
+            measure("In.readAllDoubles", "scanner 200000", 200000, "doubles",
+                    () -> scannerIn(doublesName).readAllDoubles().length);
+            measure("In.readAllDoubles", "direct 200000", 200000, "doubles",
+                    () -> new In(doublesName).readAllDoubles().length);
+        } catch (java.io.IOException e) {
+            System.out.println("Could not write the number files: " + e);
+        }
+    }
+
+    // Benchmarks scoring both corpora under a model of the other one: from the file, in shards, and as small documents
+    public static void benchmarkScore() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < CORPORA.length; i++) {
+            String trainName = CORPORA[(i + 1) % CORPORA.length];
+            String fileName = CORPORA[i];
+            LanguageModel model = new LanguageModel(5, 20);
+            model.train(trainName);
+            ModelScorer scorer = new ModelScorer(model, 1e-6);
+            long bytes = new java.io.File(fileName).length();
+            measure("ModelScorer.scoreFile", "sequential " + fileName, bytes, "bytes",
+                    () -> scorer.scoreFile(fileName).getChars());
+            measure("ModelScorer.scoreFile", "threads=" + threads + " " + fileName, bytes, "bytes",
+                    () -> scorer.scoreFile(fileName, threads).getChars());
+
+            // Documents of 1,000 characters
+            String text = new In(fileName).readAll();
+            String[] documents = new String[text.length() / 1000];
+            for (int d = 0; d < documents.length; d++) {
+                documents[d] = text.substring(d * 1000, (d + 1) * 1000);
+            }
+            measure("ModelScorer.score", documents.length + " documents " + fileName, 1000L * documents.length, "chars",
+                    () -> scorer.score(documents, threads).length);
+        }
+    }
+
+    // Benchmarks scoring a corpus under 1, 2, 4 and 8 models: in a single pass, and in one pass per model
+    public static void benchmarkAttribution() {
+        String fileName = CORPORA[0];
+        long bytes = new java.io.File(fileName).length();
+        int maxModels = 8;
+        String[] names = new String[maxModels];
+        ModelScorer[] scorers = new ModelScorer[maxModels];
+        for (int m = 0; m < maxModels; m++) {
+            // Both corpora with w=5, pruned more and more, so the models differ
+            int minCount = 1 + m / 2;
+            names[m] = CORPORA[m % 2] + " minCount=" + minCount;
+            LanguageModel model = new LanguageModel(5, 20);
+            model.train(CORPORA[m % 2]);
+            model.prune(minCount, Integer.MAX_VALUE);
+            scorers[m] = new ModelScorer(model, 1e-6);
+        }
+        for (int models = 1; models <= maxModels; models *= 2) {
+            MultiModelScorer multi = new MultiModelScorer(Arrays.copyOf(names, models), Arrays.copyOf(scorers, models));
+            int count = models;
+            measure("MultiModelScorer", "single pass models=" + models, bytes, "bytes",
+                    () -> multi.scoreFile(fileName).getBestIndex());
+            measure("ModelScorer", "one pass per model models=" + models, bytes, "bytes", () -> {
+                long chars = 0;
+                for (int m = 0; m < count; m++) {
+                    chars += scorers[m].scoreFile(fileName).getChars();
+                }
+                return chars;
+            });
+        }
+    }
+
+    // Benchmarks generating short texts from a typical prompt: from the heap, from a snapshot,
+    // and from a tiered model with several heap budgets
+    public static void benchmarkTiered() {
+        int textLength = 1000;
+        for (String fileName : CORPORA) {
+            String initialText = corpusStart(fileName, 7);
+            LanguageModel model = new LanguageModel(initialText.length(), 20);
+            model.train(fileName);
+            String params = fileName + " w=" + initialText.length();
+            try {
+                java.io.File saved = java.io.File.createTempFile("tiered", ".lms");
+                saved.deleteOnExit();
+                ModelSnapshot.save(model, saved.getPath());
+                ModelSnapshot snapshot = ModelSnapshot.load(saved.getPath(), 20);
+                measure("generate", "LanguageModel " + params, textLength, "chars",
+                        () -> model.generate(initialText, textLength).length());
+                measure("generate", "ModelSnapshot " + params, textLength, "chars",
+                        () -> snapshot.generate(initialText, textLength).length());
+                for (long budget : new long[] {1 << 18, 1 << 22, 1 << 26}) {
+                    TieredLanguageModel tiered = new TieredLanguageModel(saved.getPath(), budget, 20);
+                    measure("generate", "Tiered budget=" + (budget >> 10) + "KB " + params, textLength, "chars",
+                            () -> tiered.generate(initialText, textLength).length());
+                    System.out.println("    " + tiered);
+                }
+            } catch (java.io.IOException e) {
+                System.out.println("Could not write the snapshot: " + e);
+            }
+        }
+    }
+
+    // Benchmarks training into a snapshot: in memory and saved, and with the external trainer at several memory budgets
+    public static void benchmarkExternal() {
+        for (String fileName : CORPORA) {
+            long chars = corpusLength(fileName);
+            int windowLength = 7;
+            String params = fileName + " w=" + windowLength;
+            try {
+                java.io.File saved = java.io.File.createTempFile("external", ".lms");
+                saved.deleteOnExit();
+                measure("train+save", "LanguageModel " + params, chars, "chars", () -> {
+                    LanguageModel model = new LanguageModel(windowLength);
+                    model.train(fileName);
+                    ModelSnapshot.save(model, saved.getPath());
+                    return model.CharDataMap.size();
+                });
+                for (long budget : new long[] {1 << 20, 1 << 23, 1 << 27}) {
+                    ExternalTrainer trainer = new ExternalTrainer(windowLength, budget);
+                    measure("ExternalTrainer.train", "budget=" + (budget >> 10) + "KB " + params, chars, "chars", () -> {
+                        trainer.train(fileName, saved.getPath());
+                        return trainer.getRuns();
+                    });
+                    System.out.println("    " + trainer.getRuns() + " runs, " + trainer.getMergePasses() + " merge passes, "
+                            + String.format("%,d", trainer.getSpilledBytes()) + " bytes spilled");
+                }
+            } catch (java.io.IOException e) {
+                System.out.println("Could not write the snapshot: " + e);
+            }
+        }
+    }
+
+    // Benchmarks training all the window lengths 1-7: in a single pass of a BackoffLanguageModel,
+    // and with one train call per window length
+    public static void benchmarkBackoff() {
+        int maxWindowLength = 7;
+        for (String fileName : CORPORA) {
+            long chars = corpusLength(fileName);
+            String params = fileName + " w=1.." + maxWindowLength;
+            measure("BackoffLanguageModel.train", "single pass " + params, chars, "chars", () -> {
+                BackoffLanguageModel model = new BackoffLanguageModel(maxWindowLength);
+                model.train(fileName);
+                return model.getTrie().getEntryCount();
+            });
+            measure("train", "one call per window length " + params, chars, "chars", () -> {
+                long windows = 0;
+                for (int w = 1; w <= maxWindowLength; w++) {
+                    LanguageModel model = new LanguageModel(w);
+                    model.train(fileName);
+                    windows += model.CharDataMap.size();
+                }
+                return windows;
+            });
+            measure("compact.train", "one call per window length " + params, chars, "chars", () -> {
+                long windows = 0;
+                for (int w = 1; w <= maxWindowLength; w++) {
+                    CompactLanguageModel model = new CompactLanguageModel(w);
+                    model.train(fileName);
+                    windows += model.getSize();
+                }
+                return windows;
+            });
+        }
+    }
+
+    // Returns an In over the given file that reads through a Scanner, as In did before its bulk methods
+    private static In scannerIn(String fileName) {
+        try {
+            return new In(new java.util.Scanner(new java.io.File(fileName), "UTF-8"));
+        } catch (java.io.FileNotFoundException e) {
+            throw new IllegalArgumentException("Could not open " + fileName, e);
+        }
+    }
+
+    /** Measures the given operation, and prints a line with its results. Each operation processes
+     *  the given number of units, which is used to report the throughput. */
+    static void measure(String name, String params, long units, String unitName, Operation op) {
+        report(name, params, units, unitName, () -> iteration(op));
+    }
+
+    /** Measures the given operation like measure(name, params, units, unitName, op), but runs every
+     *  invocation on a fresh state from the given setup. The states are created before the clock
+     *  is read, so creating them is neither timed nor counted in the allocated bytes. */
+    static <T> void measure(String name, String params, long units, String unitName,
+                            Supplier<T> setup, StatefulOperation<T> op) {
+        report(name, params, units, unitName, () -> iteration(setup, op));
+    }
+
+    // Runs the warmup and the measured iterations, and prints a line with their results
+    private static void report(String name, String params, long units, String unitName, Supplier<double[]> iteration) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration.get();
+        }
+        double[] nanosPerOp = new double[MEASURE_ITERATIONS];
+        double[] bytesPerOp = new double[MEASURE_ITERATIONS];
+        for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+            double[] result = iteration.get();
+            nanosPerOp[i] = result[0];
+            bytesPerOp[i] = result[1];
+        }
+        Arrays.sort(nanosPerOp);
+        Arrays.sort(bytesPerOp);
+        double nanos = nanosPerOp[MEASURE_ITERATIONS / 2];
+        double bytes = bytesPerOp[MEASURE_ITERATIONS / 2];
+        System.out.println(String.format("%-24s %-40s %14s ns/op %14s %s/s %14s B/op",
+                name, params, format(nanos), format(units * 1e9 / nanos), unitName, format(bytes)));
+    }
+
+    // Runs the given operation for at least ITERATION_MILLIS. Returns the time and the bytes per operation.
+    private static double[] iteration(Operation op) {
+        long minNanos = ITERATION_MILLIS * 1000000L;
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        long ops = 0;
+        long elapsed;
+        long batch = 1;
+        do {
+            for (long i = 0; i < batch; i++) {
+                sink += op.run();
+            }
+            ops += batch;
+            elapsed = System.nanoTime() - start;
+            // Grows the batch while the operation is fast, so reading the clock does not dominate
+            if (elapsed < minNanos / 100) batch *= 2;
+        } while (elapsed < minNanos);
+        long allocated = allocatedBytes() - allocatedBefore;
+        return new double[] {(double) elapsed / ops, (double) allocated / ops};
+    }
+
+    // Runs the given operation on fresh states for at least ITERATION_MILLIS (creating the states
+    // included), a batch at a time: the states of a batch are created first, and only their
+    // invocations are measured. Returns the measured time and bytes per operation.
+    private static <T> double[] iteration(Supplier<T> setup, StatefulOperation<T> op) {
+        long minNanos = ITERATION_MILLIS * 1000000L;
+        long ops = 0;
+        long elapsed = 0;
+        long allocated = 0;
+        int batch = 1;
+        long iterationStart = System.nanoTime();
+        java.util.ArrayList<T> states = new java.util.ArrayList<T>();
+        do {
+            states.clear();
+            for (int i = 0; i < batch; i++) {
+                states.add(setup.get());
+            }
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < batch; i++) {
+                sink += op.run(states.get(i));
+            }
+            elapsed += System.nanoTime() - start;
+            allocated += allocatedBytes() - allocatedBefore;
+            ops += batch;
+            // Grows the batch while the operation is fast, so reading the clock does not dominate
+            if (elapsed < minNanos / 100 && batch < (1 << 16)) batch *= 2;
+        } while (System.nanoTime() - iterationStart < minNanos);
+        return new double[] {(double) elapsed / ops, (double) allocated / ops};
+    }
+
+    // Returns the number of bytes that the current thread allocated so far, or 0 if this is not supported
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    // Formats a number with 3 significant digits at most after the point, and thousands separators
+    private static String format(double value) {
+        return (value >= 100) ? String.format("%,.0f", value) : String.format("%.3f", value);
+    }
+
+    // Returns the number of characters that training reads from the given file
+    private static long corpusLength(String fileName) {
+        char[] buffer = new char[LanguageModel.BUFFER_SIZE];
+        CorpusReader reader = new CorpusReader(fileName);
+        long length = 0;
+        int n;
+        while ((n = reader.read(buffer)) > 0) {
+            length += n;
+        }
+        reader.close();
+        return length;
+    }
+
+    // Returns the first characters of the given file
+    private static String corpusStart(String fileName, int length) {
+        char[] buffer = new char[LanguageModel.BUFFER_SIZE];
+        CorpusReader reader = new CorpusReader(fileName);
+        int n = reader.read(buffer);
+        reader.close();
+        return new String(buffer, 0, Math.min(n, length));
+    }
+
+    // Returns a list of the given number of different characters, with counts 1, 2, 3, ...
+    private static List listOf(int size) {
+        List list = new List();
+        for (int i = 0; i < size; i++) {
+            for (int k = 0; k <= i; k++) {
+                list.update((char) ('!' + i));
+            }
+        }
+        return list;
+    }
+}
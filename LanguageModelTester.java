@@ -1,6 +1,10 @@
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.OutputStreamWriter;
+import java.util.Random;
+import java.util.SplittableRandom;
 
 public class LanguageModelTester {
         public static void main(String[] args) {
@@ -19,11 +23,99 @@ public class LanguageModelTester {
             case "generate":
                 result = testGenerate();
                 break;
+            case "trainMapped":
+                result = testTrainMapped();
+                break;
+            case "compact":
+                result = testCompact();
+                break;
+            case "aliasSampling":
+                result = testAliasSampling();
+                break;
+            case "countSampling":
+                result = testCountSampling();
+                break;
+            case "trainParallel":
+                result = testTrainParallel();
+                break;
+            case "concurrentTrainer":
+                result = testConcurrentTrainer();
+                break;
+            case "backoff":
+                result = testBackoff();
+                break;
+            case "contextTrie":
+                result = testContextTrie();
+                break;
+            case "snapshot":
+                result = testSnapshot();
+                break;
+            case "compiled":
+                result = testCompiled();
+                break;
+            case "streaming":
+                result = testStreaming();
+                break;
+            case "frozen":
+                result = testFrozen();
+                break;
+            case "batch":
+                result = testBatch();
+                break;
+            case "server":
+                result = testServer();
+                break;
+            case "metrics":
+                result = testMetrics();
+                break;
+            case "prune":
+                result = testPrune();
+                break;
+            case "sketch":
+                result = testSketch();
+                break;
+            case "inBulk":
+                result = testInBulk();
+                break;
+            case "score":
+                result = testScore();
+                break;
+            case "attribution":
+                result = testAttribution();
+                break;
+            case "tiered":
+                result = testTiered();
+                break;
+            case "external":
+                result = testExternal();
+                break;
             case "all":
                 result = testCalculateProbabilities();
                 result = result && testGetRandomChar();
                 result = result && testTrain();
                 result = result && testGenerate();
+                result = result && testTrainMapped();
+                result = result && testCompact();
+                result = result && testAliasSampling();
+                result = result && testCountSampling();
+                result = result && testTrainParallel();
+                result = result && testConcurrentTrainer();
+                result = result && testBackoff();
+                result = result && testContextTrie();
+                result = result && testSnapshot();
+                result = result && testCompiled();
+                result = result && testStreaming();
+                result = result && testFrozen();
+                result = result && testBatch();
+                result = result && testServer();
+                result = result && testMetrics();
+                result = result && testPrune();
+                result = result && testSketch();
+                result = result && testInBulk();
+                result = result && testScore();
+                result = result && testAttribution();
+                result = result && testTiered();
+                result = result && testExternal();
                 break;
             default:
                 break;
@@ -122,12 +214,14 @@ public class LanguageModelTester {
                 File file = File.createTempFile("test"+(i+1), ".txt");
                 file.setWritable(true);
 
-                FileWriter fileWriter = new FileWriter(file.getName(), true);
+                // The content goes into the temporary file itself, not into a file of the same name
+                // in the working directory, so no test file is left behind
+                FileWriter fileWriter = new FileWriter(file, true);
                 BufferedWriter bw = new BufferedWriter(fileWriter);
                 bw.write(content[i]);
                 bw.close();   
                 // ACTUAL TEST
-                languageModel.train(file.getName());
+                languageModel.train(file.getPath());
                 res = stringEqualsNoSpaces(languageModel.toString(), expected[i]);
                 // ACTUAL TEST ENDS
 
@@ -166,6 +260,1152 @@ public class LanguageModelTester {
         return res;
     }
 
+    // Test method for the trainMapped() method
+    public static boolean testTrainMapped() {
+        boolean result = true;
+        String [] content = {"commitee_", "a", "a \n ", "elephant_have_big_ears \n\n", "  shifted\ttext\u00e9\u20ac\ud83d\ude00 and more\u3000"};
+        for (int i = 0; i < content.length; i++) {
+            boolean res;
+            try {
+                File file = File.createTempFile("mapped" + (i + 1), ".txt");
+                file.deleteOnExit();
+                BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+                bw.write(content[i]);
+                bw.close();
+                res = sameModels(file.getPath(), 2, content[i]);
+            } catch (Exception e) {
+                res = false;
+            }
+            if (!res) {
+                System.out.println("TrainMapped Test " + i + " failed");
+            }
+            result = result && res;
+        }
+        result = result && sameModels("shakespeareinlove.txt", 3, "the") && sameModels("originofspecies.txt", 7, "Natural");
+        return result;
+    }
+
+    // Trains two models on the given file, with train and with trainMapped, and compares them.
+    private static boolean sameModels(String fileName, int windowLength, String initialText) {
+        LanguageModel expected = new LanguageModel(windowLength, 20);
+        expected.train(fileName);
+        LanguageModel actual = new LanguageModel(windowLength, 20);
+        actual.trainMapped(fileName);
+        boolean res = expected.toString().equals(actual.toString())
+                && expected.generate(initialText, 500).equals(actual.generate(initialText, 500));
+        if (!res) {
+            System.out.println("FAIL with windowLength = " + windowLength + ", fileName = " + fileName);
+        }
+        return res;
+    }
+
+    // Test method for the CompactLanguageModel class
+    public static boolean testCompact() {
+        boolean result = true;
+        int [] windowLengths = {1, 2, 4, 5, 7, 8, 9, 12};
+        for (int i = 0; i < windowLengths.length; i++) {
+            String fileName = (i % 2 == 0) ? "shakespeareinlove.txt" : "originofspecies.txt";
+            result = result && sameCompactModels(fileName, windowLengths[i]);
+        }
+        try {
+            // Windows of 5-8 chars that do not fit in a byte are kept in the arena
+            File file = File.createTempFile("compact", ".txt");
+            file.deleteOnExit();
+            BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+            bw.write("\u05e9\u05dc\u05d5\u05dd abcde \u05e9\u05dc\u05d5\u05dd abcdf \u05e9\u05dc\u05d5\u05dd abcde!");
+            bw.close();
+            for (int windowLength : windowLengths) {
+                result = result && sameCompactModels(file.getPath(), windowLength);
+            }
+        } catch (Exception e) {
+            result = false;
+        }
+        return result;
+    }
+
+    // Test method for the AliasTable class, and for alias sampling in CompactLanguageModel
+    public static boolean testAliasSampling() {
+        boolean result = true;
+        String [] words = {"home", "worker", "william_shakespeare", "aaaaaaaaab", "computer_science"};
+        int samples = 100000;
+        for (int i = 0; i < words.length; i++) {
+            List list = new List();
+            for (int j = 0; j < words[i].length(); j++) {
+                list.update(words[i].charAt(j));
+            }
+            // The successors are put after an unrelated one, that the table must not see
+            char [] chars = new char[list.getSize() + 1];
+            int [] counts = new int[list.getSize() + 1];
+            chars[0] = '#';
+            counts[0] = 1000;
+            for (int j = 0; j < list.getSize(); j++) {
+                chars[j + 1] = list.get(j).chr;
+                counts[j + 1] = list.get(j).count;
+            }
+            AliasTable table = new AliasTable(chars, counts, 1, chars.length);
+            int [] hits = new int[list.getSize()];
+            // Samples on an even grid of [0,1), so every successor is hit in proportion to its count
+            for (int k = 0; k < samples; k++) {
+                int index = list.indexOf(table.sample((k + 0.5) / samples));
+                result = result && index != -1;
+                if (index != -1) hits[index]++;
+            }
+            for (int j = 0; j < list.getSize(); j++) {
+                double expected = (double) list.get(j).count / words[i].length();
+                boolean res = Math.abs((double) hits[j] / samples - expected) < 1e-3;
+                if (!res) {
+                    System.out.println("Word: " + words[i] + ", Char: " + list.get(j).chr);
+                    System.out.println("Expected: " + expected + ", Actual: " + (double) hits[j] / samples);
+                }
+                result = result && res;
+            }
+        }
+
+        // Every generated character must be a known successor of its window
+        CompactLanguageModel model = new CompactLanguageModel(7, 20);
+        model.train("originofspecies.txt");
+        model.setAliasSampling(true);
+        String text = model.generate("Natural", 2000);
+        for (int i = 7; i < text.length(); i++) {
+            int id = model.contexts.find(keyOf(text.substring(i - 7, i)));
+            result = result && id != -1 && model.getList(id).indexOf(text.charAt(i)) != -1;
+        }
+        if (!result) {
+            System.out.println("AliasSampling Test failed");
+        }
+        return result;
+    }
+
+    // Test method for the count sampling mode of CompactLanguageModel
+    public static boolean testCountSampling() {
+        boolean result = true;
+        CompactLanguageModel expected = new CompactLanguageModel(3, 20);
+        expected.train("shakespeareinlove.txt");
+        CompactLanguageModel actual = new CompactLanguageModel(3, 20);
+        actual.setCountSampling(true);
+        actual.train("shakespeareinlove.txt");
+
+        // Every r in [0, total) of a window selects one of its successors, so the draws of the
+        // model hit each successor of each window exactly as many times as its count
+        for (int id = 0; id < actual.getSize(); id++) {
+            int from = actual.heads[id];
+            int[] hits = new int[actual.heads[id + 1] - from];
+            for (int r = 0; r < actual.totals[id]; r++) {
+                hits[actual.countEntry(id, r) - from]++;
+            }
+            for (int j = 0; j < hits.length; j++) {
+                result = result && hits[j] == actual.entryCounts[from + j];
+            }
+        }
+        // Turning count sampling on after training stores the same cumulative counts
+        expected.setCountSampling(true);
+        result = result && java.util.Arrays.equals(expected.cumulativeCounts, actual.cumulativeCounts);
+        expected.setCountSampling(false);
+        result = result && expected.cumulativeCounts == null;
+
+        result = result && actual.getProbability("the", ' ') == expected.getProbability("the", ' ')
+                && actual.getProbability("the", ' ') > 0;
+        String text = actual.generate("the", 2000);
+        result = result && text.length() == 2000 && expected.toString().equals(actual.toString());
+        for (int i = 3; i < text.length(); i++) {
+            int id = actual.contexts.find(keyOf(text.substring(i - 3, i)));
+            result = result && id != -1 && actual.getList(id).indexOf(text.charAt(i)) != -1;
+        }
+        if (!result) {
+            System.out.println("CountSampling Test failed");
+        }
+        return result;
+    }
+
+    // Test method for the trainParallel() method of CompactLanguageModel
+    public static boolean testTrainParallel() {
+        boolean result = true;
+        int [] threads = {1, 2, 3, 7, 16};
+        String [] files = {"shakespeareinlove.txt", "originofspecies.txt", null};
+        try {
+            // Multi-byte characters and trailing whitespace around the shard boundaries
+            File file = File.createTempFile("parallel", ".txt");
+            file.deleteOnExit();
+            BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+            bw.write("\u05e9\u05dc\u05d5\u05dd abc\ud83d\ude00de \u20ac\u05e9\u05dc\u05d5\u05dd abcdf e\u0301 \n\t \u3000");
+            bw.close();
+            files[2] = file.getPath();
+        } catch (Exception e) {
+            return false;
+        }
+        for (int i = 0; i < files.length; i++) {
+            for (int windowLength = 1 + i; windowLength <= 9; windowLength += 4) {
+                CompactLanguageModel expected = new CompactLanguageModel(windowLength, 20);
+                expected.train(files[i]);
+                String expectedString = expected.toString();
+                for (int j = 0; j < threads.length; j++) {
+                    CompactLanguageModel actual = new CompactLanguageModel(windowLength, 20);
+                    actual.trainParallel(files[i], threads[j]);
+                    boolean res = expectedString.equals(actual.toString());
+                    if (!res) {
+                        System.out.println("FAIL with windowLength = " + windowLength + ", threads = " + threads[j] + ", fileName = " + files[i]);
+                    }
+                    result = result && res;
+                }
+            }
+        }
+        return result;
+    }
+
+    // Test method for the ConcurrentTrainer class
+    public static boolean testConcurrentTrainer() {
+        boolean result = true;
+        String [] files = {"shakespeareinlove.txt", "originofspecies.txt"};
+        CompactLanguageModel [] expected = new CompactLanguageModel[files.length];
+        for (int i = 0; i < files.length; i++) {
+            expected[i] = new CompactLanguageModel(4, 20);
+            expected[i].train(files[i]);
+        }
+        ConcurrentTrainer trainer = new ConcurrentTrainer(4);
+        try {
+            // Each file is read twice, by four threads at the same time
+            java.io.Reader [] sources = new java.io.Reader[4];
+            for (int i = 0; i < sources.length; i++) {
+                sources[i] = new java.io.InputStreamReader(new java.io.FileInputStream(files[i % 2]), "UTF-8");
+            }
+            trainer.ingest(sources);
+        } catch (Exception e) {
+            return false;
+        }
+        long total = 0;
+        int windows = 0;
+        CompactLanguageModel model = trainer.toModel(20);
+        for (int i = 0; i < files.length; i++) {
+            for (int id = 0; id < expected[i].getSize(); id++) {
+                String window = expected[i].contexts.keyAt(id);
+                ListIterator it = expected[i].getList(id).listIterator(0);
+                while (it.hasNext()) {
+                    CharData cd = it.next();
+                    long count = 2L * cd.count;
+                    int other = expected[1 - i].contexts.find(keyOf(window));
+                    if (other != -1 && expected[1 - i].getList(other).indexOf(cd.chr) != -1) {
+                        List otherList = expected[1 - i].getList(other);
+                        count += 2L * otherList.get(otherList.indexOf(cd.chr)).count;
+                    }
+                    result = result && trainer.getCount(window, cd.chr) == count;
+                    result = result && model.getList(model.contexts.find(keyOf(window))).indexOf(cd.chr) != -1;
+                    total += 2L * cd.count;
+                }
+                windows += (i == 1 && expected[0].contexts.find(keyOf(window)) != -1) ? 0 : 1;
+            }
+        }
+        result = result && trainer.getTotal() == total && trainer.getSize() == windows && model.getSize() == windows;
+
+        // A source that fails is closed, and its IOException is the cause of the failure
+        boolean[] closed = new boolean[1];
+        java.io.Reader failing = new java.io.Reader() {
+            public int read(char[] buf, int off, int len) throws java.io.IOException {
+                throw new java.io.IOException("broken source");
+            }
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        try {
+            new ConcurrentTrainer(4).ingest(new java.io.StringReader("some text"), failing);
+            result = false;
+        } catch (IllegalStateException e) {
+            result = result && e.getCause() instanceof java.io.IOException && closed[0];
+        }
+
+        // Counts that do not fit in the int counts of a CompactLanguageModel are not clamped
+        long [][] tooLarge = {{Integer.MAX_VALUE + 1L}, {Integer.MAX_VALUE / 2 + 1, Integer.MAX_VALUE / 2 + 1}};
+        for (long [] counts : tooLarge) {
+            ConcurrentTrainer large = new ConcurrentTrainer(4);
+            for (int j = 0; j < counts.length; j++) {
+                large.add("some", (char) ('a' + j), counts[j]);
+            }
+            try {
+                large.toModel(20);
+                result = false;
+            } catch (ArithmeticException e) {
+                // expected
+            }
+        }
+        ConcurrentTrainer largest = new ConcurrentTrainer(4);
+        largest.add("some", 'a', Integer.MAX_VALUE);
+        result = result && largest.toModel(20).getProbability("some", 'a') == 1.0;
+        if (!result) {
+            System.out.println("ConcurrentTrainer Test failed");
+        }
+        return result;
+    }
+
+    // Test method for the BackoffLanguageModel class
+    public static boolean testBackoff() {
+        boolean result = true;
+        BackoffLanguageModel model = new BackoffLanguageModel(7, 20);
+        model.train("originofspecies.txt");
+        // Each window length has the same counts as a model trained on its own, and no others
+        for (int windowLength = 1; windowLength <= 7; windowLength += 3) {
+            CompactLanguageModel expected = new CompactLanguageModel(windowLength, 20);
+            expected.train("originofspecies.txt");
+            int entries = 0;
+            for (int id = 0; id < expected.getSize(); id++) {
+                String window = expected.contexts.keyAt(id);
+                ListIterator it = expected.getList(id).listIterator(0);
+                while (it.hasNext()) {
+                    CharData cd = it.next();
+                    result = result && model.getCount(window, cd.chr) == cd.count;
+                    entries++;
+                }
+            }
+            result = result && model.getTrie().getEntryCount(windowLength) == entries;
+        }
+        // Training on a second corpus adds its counts to those of the first
+        BackoffLanguageModel twice = new BackoffLanguageModel(3, 20);
+        twice.train("shakespeareinlove.txt");
+        twice.train("shakespeareinlove.txt");
+        BackoffLanguageModel once = new BackoffLanguageModel(3, 20);
+        once.train("shakespeareinlove.txt");
+        result = result && twice.getCount("the", ' ') == 2 * once.getCount("the", ' ');
+        result = result && twice.getCount("", 'e') == 2 * once.getCount("", 'e');
+        // As long as the full window is known, backing off never happens
+        CompactLanguageModel expected = new CompactLanguageModel(7, 20);
+        expected.train("originofspecies.txt");
+        BackoffLanguageModel fresh = new BackoffLanguageModel(7, 20);
+        fresh.train("originofspecies.txt");
+        result = result && expected.generate("Natural", 100).equals(fresh.generate("Natural", 100));
+        // Unknown windows, and initial texts shorter than the window, back off instead of stopping
+        String [] initialTexts = {"", "Q", "zzzzzzzzzz", "Natural"};
+        for (int i = 0; i < initialTexts.length; i++) {
+            String text = model.generate(initialTexts[i], 3000);
+            boolean res = text.length() == 3000 && text.startsWith(initialTexts[i]);
+            if (!res) {
+                System.out.println("Backoff FAIL with initialText = " + initialTexts[i] + ", length = " + text.length());
+            }
+            result = result && res;
+        }
+        return result;
+    }
+
+    // Test method for the ContextTrie class
+    public static boolean testContextTrie() {
+        boolean result = true;
+        String [] files = {"shakespeareinlove.txt", "originofspecies.txt"};
+        for (String fileName : files) {
+            ContextTrie trie = new ContextTrie(8, 20);
+            trie.train(fileName);
+            for (int windowLength = 1; windowLength <= 8; windowLength += 3) {
+                CompactLanguageModel expected = new CompactLanguageModel(windowLength, 20);
+                expected.train(fileName);
+                // Every count of the model of this window length is in the trie
+                for (int id = 0; id < expected.getSize(); id++) {
+                    String window = expected.contexts.keyAt(id);
+                    ListIterator it = expected.getList(id).listIterator(0);
+                    while (it.hasNext()) {
+                        CharData cd = it.next();
+                        result = result && trie.getCount(window, cd.chr) == cd.count;
+                    }
+                }
+                // A fresh trie, with the same seed, generates the same text
+                ContextTrie fresh = new ContextTrie(8, 20);
+                fresh.train(fileName);
+                String initialText = new In(fileName).readAll().substring(0, windowLength);
+                boolean res = expected.generate(initialText, 2000).equals(fresh.generate(initialText, 2000, windowLength));
+                if (!res) {
+                    System.out.println("ContextTrie FAIL with windowLength = " + windowLength + ", fileName = " + fileName);
+                }
+                result = result && res;
+            }
+        }
+        return result;
+    }
+
+    // Test method for the ModelSnapshot class
+    public static boolean testSnapshot() {
+        boolean result = true;
+        String [] files = {"shakespeareinlove.txt", "originofspecies.txt"};
+        int [] windowLengths = {3, 7};
+        String [] initialTexts = {"the", "Natural"};
+        for (int i = 0; i < files.length; i++) {
+            try {
+                File saved = File.createTempFile("snapshot", ".lms");
+                File compactSaved = File.createTempFile("snapshot", ".lms");
+                saved.deleteOnExit();
+                compactSaved.deleteOnExit();
+                LanguageModel expected = new LanguageModel(windowLengths[i], 20);
+                expected.trainMapped(files[i]);
+                ModelSnapshot.save(expected, saved.getPath());
+                CompactLanguageModel compact = new CompactLanguageModel(windowLengths[i], 20);
+                compact.train(files[i]);
+                ModelSnapshot.save(compact, compactSaved.getPath());
+
+                // Both models are saved in the same bytes
+                boolean res = java.util.Arrays.equals(java.nio.file.Files.readAllBytes(saved.toPath()),
+                        java.nio.file.Files.readAllBytes(compactSaved.toPath()));
+                ModelSnapshot actual = ModelSnapshot.load(saved.getPath(), 20);
+                res = res && actual.getSize() == expected.CharDataMap.size() && actual.getWindowLength() == windowLengths[i];
+                for (String window : expected.CharDataMap.keySet()) {
+                    CharData first = expected.CharDataMap.get(window).getFirst();
+                    res = res && actual.getCount(window, first.chr) == first.count;
+                }
+                res = res && expected.generate(initialTexts[i], 3000).equals(actual.generate(initialTexts[i], 3000));
+
+                // A snapshot that is mapped in many small segments (of 4 KB) reads the same counts
+                // and generates the same text, although records cross the segment boundaries
+                ModelSnapshot segmented = ModelSnapshot.load(saved.getPath(), 20, 12);
+                for (String window : expected.CharDataMap.keySet()) {
+                    CharData first = expected.CharDataMap.get(window).getFirst();
+                    res = res && segmented.getCount(window, first.chr) == first.count;
+                }
+                res = res && ModelSnapshot.load(saved.getPath(), 20).generate(initialTexts[i], 3000)
+                        .equals(segmented.generate(initialTexts[i], 3000));
+                if (!res) {
+                    System.out.println("Snapshot FAIL with windowLength = " + windowLengths[i] + ", fileName = " + files[i]);
+                }
+                result = result && res;
+            } catch (Exception e) {
+                result = false;
+            }
+        }
+        return result;
+    }
+
+    // Test method for the CompiledModel class
+    public static boolean testCompiled() {
+        boolean result = true;
+        int [] windowLengths = {1, 3, 5, 7, 9};
+        for (int i = 0; i < windowLengths.length; i++) {
+            String fileName = (i % 2 == 0) ? "shakespeareinlove.txt" : "originofspecies.txt";
+            CompactLanguageModel expected = new CompactLanguageModel(windowLengths[i], 20);
+            expected.train(fileName);
+            CompiledModel actual = new CompiledModel(expected, 20);
+            String initialText = new In(fileName).readAll().substring(0, windowLengths[i]);
+            boolean res = actual.getSize() == expected.getSize()
+                    && expected.generate(initialText, 5000).equals(actual.generate(initialText, 5000))
+                    && actual.generate("\u0000", 10).equals("\u0000");
+            if (!res) {
+                System.out.println("Compiled FAIL with windowLength = " + windowLengths[i] + ", fileName = " + fileName);
+            }
+            result = result && res;
+        }
+        return result;
+    }
+
+    // Test method for the streaming methods of CompiledModel
+    public static boolean testStreaming() {
+        CompactLanguageModel model = new CompactLanguageModel(7, 20);
+        model.train("originofspecies.txt");
+        String expected = new CompiledModel(model, 20).generate("Natural", 20000);
+
+        java.io.StringWriter writer = new java.io.StringWriter();
+        long written = new CompiledModel(model, 20).generate("Natural", 20000, writer);
+        boolean result = written == expected.length() && writer.toString().equals(expected);
+
+        StringBuilder fromIterator = new StringBuilder();
+        java.util.PrimitiveIterator.OfInt it = new CompiledModel(model, 20).iterator("Natural", 20000);
+        while (it.hasNext()) {
+            fromIterator.append((char) it.nextInt());
+        }
+        result = result && fromIterator.toString().equals(expected);
+
+        String fromStream = new CompiledModel(model, 20).chars("Natural", 20000)
+                .collect(StringBuilder::new, StringBuilder::appendCodePoint, StringBuilder::append).toString();
+        result = result && fromStream.equals(expected);
+
+        // A long text, streamed to an output that keeps nothing
+        java.io.Writer sink = new java.io.Writer() {
+            public void write(char[] buf, int off, int len) { }
+            public void flush() { }
+            public void close() { }
+        };
+        result = result && new CompiledModel(model, 20).generate("Natural", 5000000L, sink) == 5000000L;
+        result = result && new CompiledModel(model, 20).generate("Na", 100, sink) == 2;
+        if (!result) {
+            System.out.println("Streaming Test failed");
+        }
+        return result;
+    }
+
+    // Test method for frozen models, generating from several threads at once
+    public static boolean testFrozen() {
+        LanguageModel model = new LanguageModel(7, 20);
+        model.train("originofspecies.txt");
+        String expected = model.generate("Natural", 5000);
+        CompiledModel frozen = model.freeze();
+        boolean result = frozen.getSize() == model.CharDataMap.size();
+        result = result && frozen.generate("Natural", 5000, new Random(20)).equals(expected);
+
+        // Training the model further does not change a frozen copy
+        CompactLanguageModel compact = new CompactLanguageModel(7);
+        compact.train("shakespeareinlove.txt");
+        CompiledModel frozenCompact = compact.freeze();
+        int size = frozenCompact.getSize();
+        compact.train("originofspecies.txt");
+        result = result && frozenCompact.getSize() == size && frozenCompact.stateOf("Natural") == -1;
+
+        // A copy of an empty table can still grow
+        ContextTable copy = new ContextTable(new ContextTable(3));
+        WindowKey key = new WindowKey(3);
+        for (int i = 0; i < 2000; i++) {
+            key.add((char) ('a' + i % 26));
+            if (key.length() == 3 && copy.find(key) == -1) copy.add(key);
+        }
+        result = result && copy.getSize() == 26;
+
+        // Each thread generates with its own seeded generator, and gets the text of that seed
+        int threads = 4;
+        String[] texts = new String[threads];
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int seed = i;
+            workers[i] = new Thread(() -> {
+                StringBuilder text = new StringBuilder();
+                for (int k = 0; k < 20; k++) {
+                    text.append(frozen.generate("Natural", 2000, new SplittableRandom(seed * 100 + k)));
+                }
+                texts[seed] = text.toString();
+            });
+            workers[i].start();
+        }
+        for (int i = 0; i < threads; i++) {
+            try {
+                workers[i].join();
+            } catch (InterruptedException e) {
+                return false;
+            }
+            StringBuilder text = new StringBuilder();
+            for (int k = 0; k < 20; k++) {
+                text.append(frozen.generate("Natural", 2000, new SplittableRandom(i * 100 + k)));
+            }
+            result = result && text.toString().equals(texts[i]);
+        }
+        if (!result) {
+            System.out.println("Frozen Test failed");
+        }
+        return result;
+    }
+
+    // Test method for the BatchGenerator class
+    public static boolean testBatch() {
+        LanguageModel model = new LanguageModel(7);
+        model.train("originofspecies.txt");
+        String[] prompts = {"Natural", "The origin", "species", "Nat", "xyzxyzxyz"};
+        GenerationRequest[] requests = new GenerationRequest[50];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = new GenerationRequest(prompts[i % prompts.length], 100 + 37 * i, 1000 + i);
+        }
+
+        // The text of every request is the text of a model that was constructed with its seed
+        String[] expected = new String[requests.length];
+        for (int i = 0; i < requests.length; i++) {
+            LanguageModel seeded = new LanguageModel(7, (int) requests[i].getSeed());
+            seeded.CharDataMap = model.CharDataMap;
+            expected[i] = seeded.generate(requests[i].getInitialText(), requests[i].getTextLength());
+        }
+        boolean result = true;
+        for (int threads = 1; threads <= 4; threads *= 2) {
+            BatchGenerator batch = new BatchGenerator(model.freeze(), threads);
+            result = result && java.util.Arrays.equals(batch.generate(requests), expected);
+
+            String[] handled = new String[requests.length];
+            int[] count = new int[1];
+            batch.generate(requests, (index, text) -> {
+                if (handled[index] == null) count[0]++;
+                handled[index] = text;
+            });
+            result = result && count[0] == requests.length && java.util.Arrays.equals(handled, expected);
+        }
+        result = result && new BatchGenerator(model.freeze(), 2).generate(new GenerationRequest[0]).length == 0;
+        if (!result) {
+            System.out.println("Batch Test failed");
+        }
+        return result;
+    }
+
+    // Test method for the GenerationServer and LoadGenerator classes
+    public static boolean testServer() {
+        CompactLanguageModel model = new CompactLanguageModel(7);
+        model.train("originofspecies.txt");
+        CompiledModel frozen = model.freeze();
+        BatchGenerator batch = new BatchGenerator(frozen, 1);
+        GenerationServer server = new GenerationServer(frozen, 0, 2);
+        boolean result = true;
+        try {
+            // Requests that wait before the server starts are generated in one batch
+            Thread[] clients = new Thread[8];
+            String[] texts = new String[clients.length];
+            for (int i = 0; i < clients.length; i++) {
+                final int id = i;
+                clients[i] = new Thread(() -> texts[id] = server.generate(new GenerationRequest("Natural", 100, id)));
+                clients[i].start();
+            }
+            while (server.getQueued() < clients.length) {
+                Thread.sleep(1);
+            }
+            server.start();
+            for (int i = 0; i < clients.length; i++) {
+                clients[i].join();
+                result = result && texts[i].equals(batch.generate(new GenerationRequest("Natural", 100, i)));
+            }
+            result = result && server.getBatches() == 1 && server.getRequests() == clients.length;
+
+            // Answers over HTTP with the text of the seed, including non-ASCII initial texts
+            java.net.http.HttpClient client = java.net.http.HttpClient.newHttpClient();
+            String[] prompts = {"Natural", "The origin of", "na\u00efve \u2013 e"};
+            for (int i = 0; i < prompts.length; i++) {
+                String uri = "http://localhost:" + server.getPort() + "/generate?text="
+                        + java.net.URLEncoder.encode(prompts[i], java.nio.charset.StandardCharsets.UTF_8)
+                        + "&length=300&seed=" + (7 + i);
+                java.net.http.HttpResponse<String> response = client.send(
+                        java.net.http.HttpRequest.newBuilder(java.net.URI.create(uri)).build(),
+                        java.net.http.HttpResponse.BodyHandlers.ofString());
+                String expected = batch.generate(new GenerationRequest(prompts[i], 300, 7 + i));
+                result = result && response.statusCode() == 200 && response.body().equals(expected);
+            }
+            java.net.http.HttpResponse<String> bad = client.send(java.net.http.HttpRequest.newBuilder(
+                    java.net.URI.create("http://localhost:" + server.getPort() + "/generate?text=abc")).build(),
+                    java.net.http.HttpResponse.BodyHandlers.ofString());
+            result = result && bad.statusCode() == 400;
+
+            // Concurrent requests are answered
+            LoadGenerator load = new LoadGenerator();
+            load.run(server.getPort(), 8, 25, "Natural", 200);
+            result = result && load.getRequests() == 200 && load.getFailures() == 0;
+            result = result && load.getLatency(50) <= load.getLatency(99);
+        } catch (Exception e) {
+            System.out.println(e);
+            result = false;
+        } finally {
+            server.stop();
+        }
+        if (!result) {
+            System.out.println("Server Test failed");
+        }
+        return result;
+    }
+
+    // Test method for the metrics of LanguageModel
+    public static boolean testMetrics() {
+        LanguageModel model = new LanguageModel(5, 20);
+        model.train("shakespeareinlove.txt");
+        LanguageModel mapped = new LanguageModel(5, 20);
+        mapped.trainMapped("shakespeareinlove.txt");
+        ModelMetrics metrics = model.getMetrics();
+
+        long entries = 0;
+        long[] lengths = new long[ModelMetrics.LENGTH_BUCKETS];
+        for (List probs : model.CharDataMap.values()) {
+            entries += probs.getSize();
+            lengths[ModelMetrics.bucketOf(probs.getSize())]++;
+        }
+        boolean result = !metrics.isTraining() && metrics.getCharsIngested() > 0;
+        result = result && metrics.getContexts() == model.CharDataMap.size();
+        result = result && metrics.getSuccessorEntries() == entries;
+        result = result && java.util.Arrays.equals(metrics.getSuccessorListLengths(), lengths);
+        result = result && metrics.getEstimatedFootprint() > entries * ModelMetrics.ENTRY_BYTES;
+        result = result && metrics.getCharsPerSecond() > 0;
+        ModelMetrics mappedMetrics = mapped.getMetrics();
+        result = result && mappedMetrics.getCharsIngested() == metrics.getCharsIngested();
+        result = result && mappedMetrics.getContexts() == metrics.getContexts();
+        result = result && mappedMetrics.getSuccessorEntries() == metrics.getSuccessorEntries();
+
+        // Generation counters, including a text that stops early, and one that is too short to start
+        String text = model.generate("Romeo", 200);
+        model.generate("Rom", 100);
+        model.generate("xyzxy", 100);
+        result = result && metrics.getGenerateCalls() == 3;
+        result = result && metrics.getGeneratedChars() == text.length() - 5;
+        result = result && metrics.getEarlyStops() == ((text.length() < 200) ? 3 : 2);
+
+        // The same counters are attributes of the registered MBean
+        try {
+            javax.management.ObjectName name = metrics.register("tester");
+            javax.management.MBeanServer server = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+            result = result && server.getAttribute(name, "Contexts").equals(metrics.getContexts());
+            result = result && server.getAttribute(name, "GenerateCalls").equals(3L);
+            server.unregisterMBean(name);
+        } catch (javax.management.JMException e) {
+            System.out.println(e);
+            result = false;
+        }
+        if (!result) {
+            System.out.println("Metrics Test failed: " + metrics);
+        }
+        return result;
+    }
+
+    // Test method for the prune() method
+    public static boolean testPrune() {
+        // Pruning nothing leaves the model as it is
+        LanguageModel model = new LanguageModel(3, 20);
+        model.train("shakespeareinlove.txt");
+        String before = model.toString();
+        boolean result = model.prune(1, Integer.MAX_VALUE) == 0 && model.toString().equals(before);
+
+        // Top-k keeps the most frequent characters, and the first ones of equal counts
+        LanguageModel small = new LanguageModel(2, 20);
+        List list = new List();
+        for (char c : "abbcccdddeee".toCharArray()) {
+            list.update(c);
+        }
+        small.CharDataMap.put("xy", list);
+        small.prune(1, 2);
+        result = result && list.toString().equals("((e 3 0.5 0.5) (d 3 0.5 1.0))");
+
+        LanguageModel original = new LanguageModel(6, 20);
+        original.train("originofspecies.txt");
+        LanguageModel pruned = new LanguageModel(6, 20);
+        pruned.train("originofspecies.txt");
+        long saved = pruned.prune(2, 4);
+        result = result && saved > 0 && pruned.CharDataMap.size() < original.CharDataMap.size();
+        result = result && pruned.getMetrics().getContexts() == pruned.CharDataMap.size();
+        for (String window : pruned.CharDataMap.keySet()) {
+            List probs = pruned.CharDataMap.get(window);
+            result = result && probs.getSize() <= 4 && probs.getSize() > 0;
+            result = result && Math.abs(probs.get(probs.getSize() - 1).cp - 1.0) < 1e-9;
+            // Every character leads to a kept window, or to a window that was never in the model
+            for (int i = 0; i < probs.getSize(); i++) {
+                String next = window.substring(1) + probs.get(i).chr;
+                result = result && (pruned.CharDataMap.containsKey(next) || !original.CharDataMap.containsKey(next));
+            }
+        }
+        // Texts stop only where the original model stops as well
+        for (int seed = 0; seed < 20; seed++) {
+            LanguageModel generator = new LanguageModel(6, seed);
+            generator.CharDataMap = pruned.CharDataMap;
+            String text = generator.generate("Natural", 2000);
+            String window = text.substring(text.length() - 6);
+            result = result && (text.length() == 2000 || !original.CharDataMap.containsKey(window));
+        }
+        if (!result) {
+            System.out.println("Prune Test failed");
+        }
+        return result;
+    }
+
+    // Test method for the SketchLanguageModel class, against the exact model
+    public static boolean testSketch() {
+        int maxContexts = 20000;
+        LanguageModel exact = new LanguageModel(5);
+        exact.trainMapped("originofspecies.txt");
+        SketchLanguageModel sketch = new SketchLanguageModel(5, maxContexts, 1 << 16, 4, 20);
+        sketch.train("originofspecies.txt");
+        boolean result = sketch.getSize() == maxContexts;
+
+        long total = sketch.getTotal();
+        long bound = sketch.getErrorBound();
+        long pairs = 0;
+        long overBound = 0;
+        for (String window : exact.CharDataMap.keySet()) {
+            List probs = exact.CharDataMap.get(window);
+            long count = 0;
+            for (int i = 0; i < probs.getSize(); i++) {
+                CharData cd = probs.get(i);
+                count += cd.count;
+                long estimate = sketch.getCount(window, cd.chr);
+                // A count-min estimate is never smaller than the true count
+                result = result && estimate >= cd.count;
+                if (estimate - cd.count > bound) overBound++;
+                pairs++;
+            }
+            // Every window with more than total / maxContexts occurrences is monitored, with a bounded count
+            if (count > total / maxContexts) {
+                result = result && sketch.isMonitored(window);
+            }
+            if (sketch.isMonitored(window)) {
+                long estimate = sketch.getContextCount(window);
+                result = result && estimate >= count && estimate - sketch.getContextError(window) <= count;
+            }
+        }
+        // Each estimate exceeds the bound with probability at most e^-4 (about 1.8%)
+        result = result && overBound < pairs * Math.exp(-4);
+
+        // Frequent windows still generate text, and every character is drawn from a monitored window
+        String text = sketch.generate("Natur", 200);
+        result = result && text.length() > 5 && text.startsWith("Natur");
+        for (int i = 5; i < text.length(); i++) {
+            result = result && sketch.isMonitored(text.substring(i - 5, i))
+                    && sketch.getCount(text.substring(i - 5, i), text.charAt(i)) > 0;
+        }
+        if (!result) {
+            System.out.println("Sketch Test failed: " + overBound + " of " + pairs + " over " + bound);
+        }
+        return result;
+    }
+
+    // Test method for the bulk methods of In, against the same methods through a Scanner
+    public static boolean testInBulk() {
+        boolean result = true;
+        try {
+            String[] contents = {
+                "",
+                "a\r\n\rb\u2028c\u0085\n\n",
+                " +5 -0 007 2147483647 -2147483648 \u0661\u0662 \n\t-9223372036854775808 ",
+                "1.5 -0 -0.0 .5 1. +.25 3.14159265358979 0.1 123456789012345678 1e10 -2.5E-3 NaN 0x1p3 1d",
+                "12 2147483648",
+                "12 -",
+            };
+            String[] fileNames = new String[contents.length + 2];
+            fileNames[0] = "shakespeareinlove.txt";
+            fileNames[1] = "originofspecies.txt";
+            for (int i = 0; i < contents.length; i++) {
+                File file = File.createTempFile("in" + (i + 1), ".txt");
+                file.deleteOnExit();
+                try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"))) {
+                    writer.write(contents[i]);
+                }
+                fileNames[i + 2] = file.getPath();
+            }
+            for (String fileName : fileNames) {
+                String expected = scannerIn(fileName).readAll();
+                result = result && bulkIn(fileName).readAll().equals(expected);
+                result = result && java.util.Arrays.equals(bulkIn(fileName).readAllLines(), scannerIn(fileName).readAllLines());
+                result = result && java.util.Arrays.equals(bulkIn(fileName).readAllStrings(), scannerIn(fileName).readAllStrings());
+
+                // read(char[]) in small pieces, and readAllChars, return the same characters
+                In in = bulkIn(fileName);
+                StringBuilder pieces = new StringBuilder();
+                char[] buffer = new char[7];
+                int n;
+                while ((n = in.read(buffer, 0, buffer.length)) != -1) {
+                    pieces.append(buffer, 0, n);
+                }
+                result = result && pieces.toString().equals(expected);
+                result = result && bulkIn(fileName).readAllChars().toString().equals(expected);
+
+                // Numbers are parsed to the same values, or fail with the same exception
+                for (String type : new String[] {"int", "long", "double"}) {
+                    result = result && readNumbers(bulkIn(fileName), type).equals(readNumbers(scannerIn(fileName), type));
+                }
+            }
+
+            // Mixing the scanner methods with the bulk methods
+            In in = bulkIn(fileNames[3]);
+            In expectedIn = scannerIn(fileNames[3]);
+            result = result && in.readChar() == expectedIn.readChar() && in.readLine().equals(expectedIn.readLine());
+            result = result && java.util.Arrays.equals(in.readAllLines(), expectedIn.readAllLines());
+        } catch (java.io.IOException e) {
+            System.out.println(e);
+            result = false;
+        }
+        if (!result) {
+            System.out.println("In Bulk Test failed");
+        }
+        return result;
+    }
+
+    // Returns the numbers of the given type that readAllInts/Longs/Doubles read, or the exception it throws
+    private static String readNumbers(In in, String type) {
+        try {
+            switch (type) {
+                case "int": return java.util.Arrays.toString(in.readAllInts());
+                case "long": return java.util.Arrays.toString(in.readAllLongs());
+                default: return java.util.Arrays.toString(in.readAllDoubles());
+            }
+        } catch (RuntimeException e) {
+            return e.toString();
+        }
+    }
+
+    // Test method for the ModelScorer class
+    public static boolean testScore() {
+        // "ab" is followed by a once and by b three times, and "ba" was never seen
+        LanguageModel small = new LanguageModel(2, 20);
+        List list = new List();
+        for (char c : "abbb".toCharArray()) {
+            list.update(c);
+        }
+        small.CharDataMap.put("ab", list);
+        ModelScorer smallScorer = new ModelScorer(small, 0.001);
+        TextScore score = smallScorer.score("abab");
+        boolean result = score.getChars() == 2 && score.getUnseen() == 1;
+        result = result && Math.abs(score.getLogLikelihood() - (Math.log(0.25) + Math.log(0.001))) < 1e-12;
+        result = result && Math.abs(smallScorer.logProbability(keyOf("ab"), 'b') - Math.log(0.75)) < 1e-12;
+        result = result && smallScorer.score("a").getChars() == 0 && smallScorer.score("a").getPerplexity() == 1;
+        try {
+            new ModelScorer(small, 0);
+            result = false;
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // A model scores its own corpus without unseen events, the same in one piece, from the file, and in shards
+        LanguageModel model = new LanguageModel(4, 20);
+        model.train("shakespeareinlove.txt");
+        ModelScorer scorer = new ModelScorer(model, 1e-6);
+        String corpus = corpusOf("shakespeareinlove.txt", Integer.MAX_VALUE);
+        TextScore whole = scorer.score(corpus);
+        TextScore file = scorer.scoreFile("shakespeareinlove.txt");
+        result = result && whole.getUnseen() == 0 && whole.getChars() == corpus.length() - 4;
+        result = result && file.getChars() == whole.getChars() && file.getLogLikelihood() == whole.getLogLikelihood();
+        for (int threads = 2; threads <= 5; threads++) {
+            TextScore sharded = scorer.scoreFile("shakespeareinlove.txt", threads);
+            result = result && sharded.getChars() == whole.getChars() && sharded.getUnseen() == 0;
+            result = result && Math.abs(sharded.getLogLikelihood() - whole.getLogLikelihood()) < 1e-6 * -whole.getLogLikelihood();
+        }
+
+        // Held-out text has unseen events, and a higher cross-entropy
+        String heldOut = corpusOf("originofspecies.txt", 20000);
+        TextScore other = scorer.score(heldOut);
+        result = result && other.getUnseen() > 0 && other.getCrossEntropy() > whole.getCrossEntropy();
+
+        // Scoring documents in a batch gives the scores of scoring them one by one
+        String[] documents = new String[37];
+        for (int i = 0; i < documents.length; i++) {
+            documents[i] = heldOut.substring(i * 500, i * 500 + 100 + i * 7);
+        }
+        TextScore[] scores = scorer.score(documents, 3);
+        for (int i = 0; i < documents.length; i++) {
+            TextScore expected = scorer.score(documents[i]);
+            result = result && scores[i].getChars() == expected.getChars() && scores[i].getUnseen() == expected.getUnseen();
+            result = result && scores[i].getLogLikelihood() == expected.getLogLikelihood();
+        }
+        if (!result) {
+            System.out.println("Score Test failed: " + whole + " " + file + " " + other);
+        }
+        return result;
+    }
+
+    // Test method for the MultiModelScorer class
+    public static boolean testAttribution() {
+        String[] corpora = {"shakespeareinlove.txt", "originofspecies.txt"};
+        int[] windowLengths = {4, 4, 6};
+        String[] names = new String[windowLengths.length];
+        ModelScorer[] scorers = new ModelScorer[windowLengths.length];
+        for (int m = 0; m < scorers.length; m++) {
+            names[m] = corpora[m % 2] + " w=" + windowLengths[m];
+            LanguageModel model = new LanguageModel(windowLengths[m], 20);
+            model.train(corpora[m % 2]);
+            scorers[m] = new ModelScorer(model, 1e-6);
+        }
+        MultiModelScorer multi = new MultiModelScorer(names, scorers);
+
+        // One pass gives every model the score that it gives alone, up to the order of the sums of a long text
+        boolean result = multi.getSize() == 3;
+        String text = corpusOf("originofspecies.txt", 50000);
+        Attribution attribution = multi.score(text);
+        Attribution fromFile = multi.scoreFile("shakespeareinlove.txt");
+        for (int m = 0; m < scorers.length; m++) {
+            TextScore expected = scorers[m].score(text);
+            TextScore score = attribution.getScore(m);
+            result = result && score.getChars() == expected.getChars() && score.getUnseen() == expected.getUnseen();
+            result = result && Math.abs(score.getLogLikelihood() - expected.getLogLikelihood()) < 1e-9 * -expected.getLogLikelihood();
+            expected = scorers[m].scoreFile("shakespeareinlove.txt");
+            score = fromFile.getScore(names[m]);
+            result = result && score.getUnseen() == expected.getUnseen();
+            result = result && Math.abs(score.getLogLikelihood() - expected.getLogLikelihood()) < 1e-9 * -expected.getLogLikelihood();
+            // A short text is scored character by character, in the order of the text
+            String shortText = text.substring(0, 300);
+            expected = scorers[m].score(shortText);
+            score = multi.score(shortText).getScore(m);
+            result = result && score.getUnseen() == expected.getUnseen() && score.getLogLikelihood() == expected.getLogLikelihood();
+        }
+        result = result && attribution.getBest().equals(names[1]) && fromFile.getBest().equals(names[2]);
+
+        // Short documents are attributed to the corpus they come from
+        String other = corpusOf("shakespeareinlove.txt", 50000);
+        String[] documents = new String[40];
+        for (int d = 0; d < documents.length; d++) {
+            String source = (d % 2 == 0) ? text : other;
+            documents[d] = source.substring(d * 1000, d * 1000 + 300);
+        }
+        Attribution[] attributions = multi.score(documents, 3);
+        for (int d = 0; d < documents.length; d++) {
+            String best = attributions[d].getBest();
+            result = result && best.startsWith(corpora[(d + 1) % 2]) && best.equals(multi.score(documents[d]).getBest());
+        }
+
+        // A single model, and more models of one window length than fit in one group, score as they do alone
+        MultiModelScorer one = new MultiModelScorer(new String[] {names[0]}, new ModelScorer[] {scorers[0]});
+        result = result && one.score(text).getScore(0).getLogLikelihood() == scorers[0].score(text).getLogLikelihood();
+        int many = MultiModelScorer.MAX_GROUP_MODELS + 2;
+        String[] manyNames = new String[many];
+        ModelScorer[] manyScorers = new ModelScorer[many];
+        for (int m = 0; m < many; m++) {
+            manyNames[m] = "model " + m;
+            manyScorers[m] = scorers[m % 2];
+        }
+        Attribution manyAttribution = new MultiModelScorer(manyNames, manyScorers).score(text);
+        for (int m = 0; m < many; m++) {
+            TextScore expected = scorers[m % 2].score(text);
+            result = result && manyAttribution.getScore(m).getUnseen() == expected.getUnseen()
+                    && Math.abs(manyAttribution.getScore(m).getLogLikelihood() - expected.getLogLikelihood()) < 1e-9 * -expected.getLogLikelihood();
+        }
+        try {
+            new MultiModelScorer(new String[] {"a"}, scorers);
+            result = false;
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        if (!result) {
+            System.out.println("Attribution Test failed: " + attribution + " " + fromFile);
+        }
+        return result;
+    }
+
+    // Test method for the TieredLanguageModel class
+    public static boolean testTiered() {
+        boolean result = true;
+        try {
+            File saved = File.createTempFile("tiered", ".lms");
+            saved.deleteOnExit();
+            LanguageModel model = new LanguageModel(7, 20);
+            model.trainMapped("originofspecies.txt");
+            ModelSnapshot.save(model, saved.getPath());
+
+            // Whatever the budget, the tiered model generates the text of the saved model
+            long[] budgets = {0, 1 << 14, 1 << 18, 1L << 30};
+            for (long budget : budgets) {
+                TieredLanguageModel tiered = new TieredLanguageModel(saved.getPath(), budget, 20);
+                LanguageModel expected = new LanguageModel(7, 20);
+                expected.CharDataMap = model.CharDataMap;
+                for (int t = 0; t < 5; t++) {
+                    String text = expected.generate("Natural", 5000);
+                    result = result && tiered.generate("Natural", 5000).equals(text);
+                }
+                // Every generated character (but the last one, if it stopped) is one lookup
+                result = result && tiered.getHits() + tiered.getMisses() >= 5 * (5000 - 7) - 5;
+                result = result && tiered.getHeapBytes() <= budget && tiered.getHotSize() <= tiered.getSize();
+                if (budget == 0) {
+                    result = result && tiered.getHits() == 0 && tiered.getHotSize() == 0;
+                } else if (budget == (1L << 30)) {
+                    // Every miss loads a context that stays
+                    result = result && tiered.getEvictions() == 0 && tiered.getMisses() == tiered.getHotSize();
+                } else {
+                    result = result && tiered.getEvictions() > 0 && tiered.getHits() > 0;
+                }
+            }
+
+            // The context of the prompt is visited by every text, so it stays hot, while the
+            // contexts that each text visits once are evicted
+            TieredLanguageModel tiered = new TieredLanguageModel(saved.getPath(), 1 << 16, 20);
+            for (int t = 0; t < 50; t++) {
+                tiered.generate("Natural", 200);
+            }
+            result = result && tiered.getEvictions() > 0;
+            tiered.resetCounters();
+            tiered.generate("Natural", 8);
+            result = result && tiered.getHits() == 1 && tiered.getMisses() == 0;
+            if (!result) {
+                System.out.println("Tiered Test failed: " + tiered);
+            }
+        } catch (java.io.IOException e) {
+            System.out.println(e);
+            result = false;
+        }
+        return result;
+    }
+
+    // Test method for the ExternalTrainer class, against train and ModelSnapshot.save
+    public static boolean testExternal() {
+        boolean result = true;
+        String[] files = {"shakespeareinlove.txt", "originofspecies.txt", "shakespeareinlove.txt"};
+        int[] windowLengths = {3, 7, 1};
+        // A few runs merged at once, many runs merged in several passes, and a single run
+        long[] budgets = {200000, 100000, 1L << 26};
+        int[] fanIns = {64, 4, 64};
+        for (int i = 0; i < files.length; i++) {
+            try {
+                File expectedFile = File.createTempFile("external", ".lms");
+                File actualFile = File.createTempFile("external", ".lms");
+                expectedFile.deleteOnExit();
+                actualFile.deleteOnExit();
+                LanguageModel model = new LanguageModel(windowLengths[i], 20);
+                model.train(files[i]);
+                ModelSnapshot.save(model, expectedFile.getPath());
+                ExternalTrainer trainer = new ExternalTrainer(windowLengths[i], budgets[i], fanIns[i], null);
+                trainer.train(files[i], actualFile.getPath());
+
+                boolean res = java.util.Arrays.equals(java.nio.file.Files.readAllBytes(expectedFile.toPath()),
+                        java.nio.file.Files.readAllBytes(actualFile.toPath()));
+                res = res && trainer.getRecords() == corpusOf(files[i], Integer.MAX_VALUE).length() - windowLengths[i];
+                if (i == 0) res = res && trainer.getRuns() > 1 && trainer.getMergePasses() == 1;
+                if (i == 1) res = res && trainer.getRuns() > 16 && trainer.getMergePasses() > 2;
+                if (i == 2) res = res && trainer.getRuns() == 1;
+                // The buffers of a merge fit in the budget
+                res = res && (trainer.getMergeFanIn() + 1L) * trainer.getRunBufferSize() <= budgets[i];
+                String initialText = corpusOf(files[i], windowLengths[i]);
+                res = res && ModelSnapshot.load(actualFile.getPath(), 20).generate(initialText, 1000)
+                        .equals(model.generate(initialText, 1000));
+                if (!res) {
+                    System.out.println("External FAIL with windowLength = " + windowLengths[i] + ", fileName = " + files[i]
+                            + ", " + trainer.getRuns() + " runs, " + trainer.getMergePasses() + " passes");
+                }
+                result = result && res;
+            } catch (java.io.IOException e) {
+                System.out.println(e);
+                result = false;
+            }
+        }
+        // A budget that cannot merge two runs is rejected, and a small budget lowers the fan-in
+        long[] tooSmall = {100, 3L * ExternalTrainer.MIN_RUN_BUFFER_SIZE - 1};
+        for (long budget : tooSmall) {
+            try {
+                new ExternalTrainer(5, budget);
+                result = false;
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        ExternalTrainer small = new ExternalTrainer(5, 100000);
+        result = result && small.getMergeFanIn() < ExternalTrainer.MERGE_FAN_IN
+                && (small.getMergeFanIn() + 1L) * small.getRunBufferSize() <= 100000;
+        return result;
+    }
+
+    // Returns the first characters of the given file, as training reads them
+    private static String corpusOf(String fileName, int length) {
+        StringBuilder text = new StringBuilder();
+        CorpusReader reader = new CorpusReader(fileName);
+        char[] buffer = new char[LanguageModel.BUFFER_SIZE];
+        int n;
+        while (text.length() < length && (n = reader.read(buffer)) > 0) {
+            text.append(buffer, 0, n);
+        }
+        reader.close();
+        return text.substring(0, Math.min(length, text.length()));
+    }
+
+    // Returns an In over the given file, that reads it directly
+    private static In bulkIn(String fileName) {
+        return new In(fileName);
+    }
+
+    // Returns an In over the given file, that reads it through a Scanner
+    private static In scannerIn(String fileName) throws java.io.IOException {
+        return new In(new java.util.Scanner(new File(fileName), "UTF-8"));
+    }
+
+    // Returns a window key holding the given string.
+    private static WindowKey keyOf(String str) {
+        WindowKey key = new WindowKey(str.length());
+        for (int i = 0; i < str.length(); i++) {
+            key.add(str.charAt(i));
+        }
+        return key;
+    }
+
+    // Trains a LanguageModel and a CompactLanguageModel on the given file, and compares them.
+    private static boolean sameCompactModels(String fileName, int windowLength) {
+        LanguageModel expected = new LanguageModel(windowLength, 20);
+        expected.trainMapped(fileName);
+        CompactLanguageModel actual = new CompactLanguageModel(windowLength, 20);
+        actual.train(fileName);
+        String initialText = new In(fileName).readAll().substring(0, windowLength);
+        boolean res = sameLines(expected.toString(), actual.toString())
+                && expected.generate(initialText, 1000).equals(actual.generate(initialText, 1000));
+        if (!res) {
+            System.out.println("FAIL with windowLength = " + windowLength + ", fileName = " + fileName);
+        }
+        return res;
+    }
+
+    // Checks if the given strings have the same lines, in any order.
+    private static boolean sameLines(String s1, String s2) {
+        String [] lines1 = s1.split("\n");
+        String [] lines2 = s2.split("\n");
+        java.util.Arrays.sort(lines1);
+        java.util.Arrays.sort(lines2);
+        return java.util.Arrays.equals(lines1, lines2);
+    }
+
     private static boolean stringEqualsNoSpaces(String s1, String s2) {
         s1 = s1.replaceAll("\\s+", "");
         s2 = s2.replaceAll("\\s+", "");
@@ -256,5 +256,4 @@ public class ListTester {
         }
         return result;
     }
-    
 }
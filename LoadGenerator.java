@@ -0,0 +1,133 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** Sends generate requests to a GenerationServer from several client threads at once, and
+ *  measures the latency of each request and the number of requests answered per second.
+ *  Every client sends its requests one after the other, each as soon as the previous one
+ *  was answered, so the number of clients is the number of requests in flight. */
+public class LoadGenerator {
+
+    // The latency of every request, in nanoseconds, after run() (sorted)
+    private long[] latencies;
+
+    // The time that all the requests took, in nanoseconds
+    private long elapsed;
+
+    // The number of requests that were not answered with status 200
+    private int failures;
+
+    /** Sends requestsPerClient requests from each of the given number of clients to the server
+     *  at the given port of this machine, each for a text of the given length that starts with
+     *  the given text. Returns when all the requests were answered. */
+    public void run(int port, int clients, int requestsPerClient, String initialText, int textLength) {
+        HttpClient client = HttpClient.newHttpClient();
+        String base = "http://localhost:" + port + "/generate?text="
+                + URLEncoder.encode(initialText, StandardCharsets.UTF_8) + "&length=" + textLength;
+        long[] times = new long[clients * requestsPerClient];
+        int[] failed = new int[clients];
+        Thread[] threads = new Thread[clients];
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            final int id = c;
+            threads[c] = new Thread(() -> {
+                for (int i = 0; i < requestsPerClient; i++) {
+                    int index = id * requestsPerClient + i;
+                    HttpRequest request = HttpRequest.newBuilder(URI.create(base + "&seed=" + index)).build();
+                    long sent = System.nanoTime();
+                    try {
+                        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                        if (response.statusCode() != 200) failed[id]++;
+                    } catch (IOException e) {
+                        failed[id]++;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    times[index] = System.nanoTime() - sent;
+                }
+            });
+            threads[c].start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for the clients", e);
+            }
+        }
+        elapsed = System.nanoTime() - start;
+        latencies = times;
+        Arrays.sort(latencies);
+        failures = 0;
+        for (int f : failed) {
+            failures += f;
+        }
+    }
+
+    /** Returns the number of requests that were sent. */
+    public int getRequests() {
+        return latencies.length;
+    }
+
+    /** Returns the number of requests that failed. */
+    public int getFailures() {
+        return failures;
+    }
+
+    /** Returns the number of requests that were answered per second. */
+    public double getThroughput() {
+        return latencies.length / (elapsed / 1e9);
+    }
+
+    /** Returns the given percentile (0-100) of the latencies, in milliseconds. */
+    public double getLatency(double percentile) {
+        int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+        return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1e6;
+    }
+
+    /** Returns a string with the results of the last run. */
+    public String toString() {
+        return String.format("%d requests, %d failed, %.0f requests/s, p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                getRequests(), failures, getThroughput(), getLatency(50), getLatency(99), getLatency(100));
+    }
+
+    /** Measures a server on this machine. If no port is given, trains a model on the given corpus
+     *  and starts a server for it in this process first, with TCP_NODELAY on.
+     *  Usage: java LoadGenerator clients requestsPerClient textLength initialText (port | windowLength corpusFile) */
+    public static void main(String[] args) {
+        int clients = Integer.parseInt(args[0]);
+        int requestsPerClient = Integer.parseInt(args[1]);
+        int textLength = Integer.parseInt(args[2]);
+        String initialText = args[3];
+
+        GenerationServer server = null;
+        int port;
+        if (args.length > 5) {
+            GenerationServer.setNoDelay(true);
+            CompactLanguageModel model = new CompactLanguageModel(Integer.parseInt(args[4]));
+            model.train(args[5]);
+            server = new GenerationServer(model.freeze(), 0, Runtime.getRuntime().availableProcessors());
+            server.start();
+            port = server.getPort();
+        } else {
+            port = Integer.parseInt(args[4]);
+        }
+
+        LoadGenerator load = new LoadGenerator();
+        // A short first run warms up both sides
+        load.run(port, clients, Math.max(1, requestsPerClient / 10), initialText, textLength);
+        load.run(port, clients, requestsPerClient, initialText, textLength);
+        System.out.println(load);
+        if (server != null) {
+            System.out.println(server.getRequests() + " requests in " + server.getBatches() + " batches");
+            server.stop();
+        }
+    }
+}
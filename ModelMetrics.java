@@ -0,0 +1,186 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** Counts what a language model does while it trains and generates, and exposes the counts as
+ *  a JMX MBean (see ModelMetricsMBean) and as a periodic log line.
+ *  The training loop counts characters in local variables, and reports them here only once
+ *  every FLUSH_INTERVAL characters, so the hot loop does no shared writes. Generation reports
+ *  once per call, to LongAdders, so concurrent generate calls do not contend. */
+public class ModelMetrics implements ModelMetricsMBean {
+
+    // The number of characters that training counts locally before it reports them
+    static final int FLUSH_INTERVAL = 1 << 14;
+
+    // The number of buckets of the successor list length histogram (lengths up to 2^16)
+    static final int LENGTH_BUCKETS = 17;
+
+    // Estimated heap bytes per context: a HashMap node and its table slot, a String and a List
+    static final int CONTEXT_BYTES = 32 + 8 + 24 + 16 + 24;
+
+    // Estimated heap bytes per successor entry: a list Node and a CharData
+    static final int ENTRY_BYTES = 24 + 40;
+
+    // The window length of the model, for the size of its String keys
+    private final int windowLength;
+
+    // Training counters, written only by the training thread
+    private volatile boolean training;
+    private volatile long trainingStart;
+    private volatile long charsIngested;
+    private volatile long contexts;
+    private volatile long successorEntries;
+    private volatile long ingestNanos;
+    private volatile long probabilitiesNanos;
+    private volatile long[] listLengths = new long[LENGTH_BUCKETS];
+
+    // Generation counters, written by any thread
+    private final LongAdder generateCalls = new LongAdder();
+    private final LongAdder generatedChars = new LongAdder();
+    private final LongAdder earlyStops = new LongAdder();
+
+    /** Constructs the metrics of a model with the given window length. */
+    public ModelMetrics(int windowLength) {
+        this.windowLength = windowLength;
+    }
+
+    // Called when training starts.
+    void trainingStarted() {
+        trainingStart = System.nanoTime();
+        training = true;
+    }
+
+    // Called by the training thread with the characters it read, and the current size of the model.
+    void ingested(long chars, long contexts, long successorEntries) {
+        charsIngested += chars;
+        this.contexts = contexts;
+        this.successorEntries = successorEntries;
+    }
+
+    // Called when all the characters were read, before the probabilities are calculated.
+    void ingestFinished() {
+        ingestNanos += System.nanoTime() - trainingStart;
+    }
+
+    // Called when the probabilities were calculated, with the given histogram of list lengths.
+    void trainingFinished(long probabilitiesNanos, long[] listLengths) {
+        this.probabilitiesNanos += probabilitiesNanos;
+        this.listLengths = listLengths;
+        training = false;
+    }
+
+    // Called when the model was pruned, with its new size and histogram of list lengths.
+    void pruned(long contexts, long successorEntries, long[] listLengths) {
+        this.contexts = contexts;
+        this.successorEntries = successorEntries;
+        this.listLengths = listLengths;
+    }
+
+    // Called once per generate call, with the number of characters it produced.
+    void generated(long chars, boolean stoppedEarly) {
+        generateCalls.increment();
+        generatedChars.add(chars);
+        if (stoppedEarly) earlyStops.increment();
+    }
+
+    /** Returns the histogram bucket of a successor list of the given length. */
+    static int bucketOf(int length) {
+        return Math.min(31 - Integer.numberOfLeadingZeros(Math.max(length, 1)), LENGTH_BUCKETS - 1);
+    }
+
+    public boolean isTraining() {
+        return training;
+    }
+
+    public long getCharsIngested() {
+        return charsIngested;
+    }
+
+    public double getCharsPerSecond() {
+        long nanos = training ? System.nanoTime() - trainingStart : ingestNanos;
+        return (nanos == 0) ? 0 : charsIngested * 1e9 / nanos;
+    }
+
+    public long getContexts() {
+        return contexts;
+    }
+
+    public long getSuccessorEntries() {
+        return successorEntries;
+    }
+
+    public long[] getSuccessorListLengths() {
+        return listLengths.clone();
+    }
+
+    public long getEstimatedFootprint() {
+        return estimateFootprint(windowLength, contexts, successorEntries);
+    }
+
+    /** Returns an estimate of the heap bytes of a map with the given window length and size. */
+    static long estimateFootprint(int windowLength, long contexts, long successorEntries) {
+        // A String key holds a byte array of windowLength Latin-1 chars, rounded up to 8 bytes
+        long keyBytes = (windowLength + 7) / 8 * 8;
+        return contexts * (CONTEXT_BYTES + keyBytes) + successorEntries * ENTRY_BYTES;
+    }
+
+    public long getIngestMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(ingestNanos);
+    }
+
+    public long getProbabilitiesMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(probabilitiesNanos);
+    }
+
+    public long getGenerateCalls() {
+        return generateCalls.sum();
+    }
+
+    public long getGeneratedChars() {
+        return generatedChars.sum();
+    }
+
+    public long getEarlyStops() {
+        return earlyStops.sum();
+    }
+
+    /** Registers these metrics with the platform MBean server, under the given name, and
+     *  returns the name they were registered under. */
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = new ObjectName("LanguageModel:type=ModelMetrics,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Could not register the metrics as " + name, e);
+        }
+    }
+
+    /** Prints toString() to the given stream every given number of milliseconds, from a daemon
+     *  thread. Returns the executor that prints, so the caller can shut it down. */
+    public ScheduledExecutorService startLogging(long periodMillis, PrintStream out) {
+        ScheduledExecutorService logger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.scheduleAtFixedRate(() -> out.println(this), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        return logger;
+    }
+
+    /** Returns a one-line summary of these metrics. */
+    public String toString() {
+        return String.format("%s: %,d chars (%,.0f chars/s), %,d contexts, %,d entries, ~%,d KB, "
+                + "ingest %,d ms, probabilities %,d ms, generate %,d calls %,d chars %,d early stops",
+                training ? "training" : "trained", getCharsIngested(), getCharsPerSecond(), getContexts(),
+                getSuccessorEntries(), getEstimatedFootprint() / 1024, getIngestMillis(),
+                getProbabilitiesMillis(), getGenerateCalls(), getGeneratedChars(), getEarlyStops());
+    }
+}
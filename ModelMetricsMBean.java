@@ -0,0 +1,41 @@
+/** The management interface of ModelMetrics: the training and generation counters of a
+ *  language model, as JMX attributes. */
+public interface ModelMetricsMBean {
+
+    /** Returns true while the model is training. */
+    boolean isTraining();
+
+    /** Returns the number of characters that training read. */
+    long getCharsIngested();
+
+    /** Returns the number of characters that training read per second (so far, while training). */
+    double getCharsPerSecond();
+
+    /** Returns the number of contexts (windows) of the model. */
+    long getContexts();
+
+    /** Returns the number of successor entries (window, character) of the model. */
+    long getSuccessorEntries();
+
+    /** Returns the number of successor lists by length: element i counts the lists whose
+     *  length is in [2^i, 2^(i+1)). Filled in when the probabilities are calculated. */
+    long[] getSuccessorListLengths();
+
+    /** Returns an estimate of the heap bytes that the map of the model uses. */
+    long getEstimatedFootprint();
+
+    /** Returns the time that training spent reading and counting characters, in milliseconds. */
+    long getIngestMillis();
+
+    /** Returns the time that training spent calculating probabilities, in milliseconds. */
+    long getProbabilitiesMillis();
+
+    /** Returns the number of calls to generate. */
+    long getGenerateCalls();
+
+    /** Returns the number of characters that generate produced (initial texts excluded). */
+    long getGeneratedChars();
+
+    /** Returns the number of texts that stopped early because their window was not in the model. */
+    long getEarlyStops();
+}
@@ -0,0 +1,242 @@
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/** Scores texts under a trained language model: how likely the model finds each character of a
+ *  text, given the window that precedes it. Like training, the first windowLength characters of a
+ *  text only form the first window, and every following character is scored.
+ *  The model is copied into flat arrays: its windows into a ContextTable, so a text is scanned
+ *  with one rolling WindowKey and no allocation, and the natural logarithm of the probability
+ *  of every (window, character) pair into an array. A character that the model never saw after
+ *  its window (or whose window the model never saw) is an unseen event, and gets the floor
+ *  probability. A scorer is immutable, so many threads can score with it at once. */
+public class ModelScorer {
+
+    // The windows of the model
+    final ContextTable contexts;
+
+    // The window length used in this model.
+    private final int windowLength;
+
+    // The entries of window id are in [offsets[id], offsets[id + 1])
+    final int[] offsets;
+
+    // Per entry: the successor character, and the logarithm of its probability
+    final char[] chars;
+    final double[] logProbs;
+
+    // The logarithm of the probability of an unseen event
+    final double floorLogProb;
+
+    /** Constructs a scorer of the given trained model, that gives unseen events the given
+     *  probability (which must be in (0, 1]). */
+    public ModelScorer(LanguageModel model, double floor) {
+        if (!(floor > 0 && floor <= 1)) {
+            throw new IllegalArgumentException("floor must be in (0, 1]: " + floor);
+        }
+        floorLogProb = Math.log(floor);
+        windowLength = model.windowLength;
+        contexts = new ContextTable(windowLength);
+        List[] lists = new List[model.CharDataMap.size()];
+        WindowKey window = new WindowKey(windowLength);
+        int entries = 0;
+        for (Map.Entry<String, List> entry : model.CharDataMap.entrySet()) {
+            window.clear();
+            for (int i = 0; i < windowLength; i++) {
+                window.add(entry.getKey().charAt(i));
+            }
+            lists[contexts.add(window)] = entry.getValue();
+            entries += entry.getValue().getSize();
+        }
+        offsets = new int[lists.length + 1];
+        chars = new char[entries];
+        logProbs = new double[entries];
+        for (int id = 0; id < lists.length; id++) {
+            ListIterator it = lists[id].listIterator(0);
+            int total = 0;
+            while (it.hasNext()) {
+                total += it.next().count;
+            }
+            int e = offsets[id];
+            it = lists[id].listIterator(0);
+            while (it.hasNext()) {
+                CharData cd = it.next();
+                chars[e] = cd.chr;
+                logProbs[e] = Math.log((double) cd.count / total);
+                e++;
+            }
+            offsets[id + 1] = e;
+        }
+    }
+
+    /** Returns the natural logarithm of the probability of the given character after the
+     *  window at the end of the given key, or of the floor probability if it is an unseen event. */
+    public double logProbability(WindowKey window, char c) {
+        int e = entryOf(window, c);
+        return (e == -1) ? floorLogProb : logProbs[e];
+    }
+
+    /** Returns the window length of the scored model. */
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    // Returns the entry of the given character after the given window, or -1 if it is an unseen event.
+    private int entryOf(WindowKey window, char c) {
+        int id = contexts.find(window);
+        if (id != -1) {
+            for (int e = offsets[id]; e < offsets[id + 1]; e++) {
+                if (chars[e] == c) return e;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the score of the given text. */
+    public TextScore score(CharSequence text) {
+        WindowKey window = new WindowKey(windowLength);
+        long scored = 0;
+        long unseen = 0;
+        double logLikelihood = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (window.isFull()) {
+                int e = entryOf(window, c);
+                if (e == -1) {
+                    logLikelihood += floorLogProb;
+                    unseen++;
+                } else {
+                    logLikelihood += logProbs[e];
+                }
+                scored++;
+            }
+            window.add(c);
+        }
+        return new TextScore(scored, unseen, logLikelihood);
+    }
+
+    /** Returns the scores of the given documents, each scored on its own, using the given
+     *  number of threads: scores[i] is the score of documents[i]. */
+    public TextScore[] score(CharSequence[] documents, int threads) {
+        TextScore[] scores = new TextScore[documents.length];
+        if (documents.length == 0) return scores;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new DocumentsTask(documents, scores, 0, documents.length));
+        } finally {
+            pool.shutdown();
+        }
+        return scores;
+    }
+
+    /** Returns the score of the text in the given file (trailing whitespace excluded, as in training). */
+    public TextScore scoreFile(String fileName) {
+        CorpusReader reader = new CorpusReader(fileName);
+        TextScore score = score(reader, new WindowKey(windowLength));
+        reader.close();
+        return score;
+    }
+
+    /** Returns the score of the text in the given file, using the given number of threads.
+     *  The file is split into byte ranges that start on character boundaries, and each range is
+     *  scored starting from the windowLength characters that precede it, so the result is the
+     *  score of the whole file (up to the rounding of the sums). */
+    public TextScore scoreFile(String fileName, int threads) {
+        long[] bounds = ShardedCorpus.split(fileName, threads);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.invoke(new ShardTask(fileName, bounds, 0, bounds.length - 1));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Scores the characters of the given reader, continuing from the given window.
+    TextScore score(CorpusReader reader, WindowKey window) {
+        char[] buffer = new char[LanguageModel.BUFFER_SIZE];
+        long scored = 0;
+        long unseen = 0;
+        double logLikelihood = 0;
+        int n;
+        while ((n = reader.read(buffer)) > 0) {
+            for (int i = 0; i < n; i++) {
+                char c = buffer[i];
+                if (window.isFull()) {
+                    int e = entryOf(window, c);
+                    if (e == -1) {
+                        logLikelihood += floorLogProb;
+                        unseen++;
+                    } else {
+                        logLikelihood += logProbs[e];
+                    }
+                    scored++;
+                }
+                window.add(c);
+            }
+        }
+        return new TextScore(scored, unseen, logLikelihood);
+    }
+
+    // Scores the ranges [lo, hi) of the given bounds, and adds up their scores in order.
+    private class ShardTask extends RecursiveTask<TextScore> {
+        // The version that the Serializable RecursiveTask asks for. The shards of a file are
+        // scored within one scoreFile call, so no ShardTask outlives it to be written.
+        private static final long serialVersionUID = 1L;
+
+        private final String fileName;
+        private final long[] bounds;
+        private final int lo;
+        private final int hi;
+
+        ShardTask(String fileName, long[] bounds, int lo, int hi) {
+            this.fileName = fileName;
+            this.bounds = bounds;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected TextScore compute() {
+            if (hi - lo == 1) {
+                WindowKey window = ShardedCorpus.windowBefore(fileName, bounds[lo], windowLength);
+                CorpusReader reader = new CorpusReader(fileName, bounds[lo], bounds[hi]);
+                TextScore score = score(reader, window);
+                reader.close();
+                return score;
+            }
+            int mid = (lo + hi) >>> 1;
+            ShardTask left = new ShardTask(fileName, bounds, lo, mid);
+            ShardTask right = new ShardTask(fileName, bounds, mid, hi);
+            right.fork();
+            TextScore score = left.compute();
+            return score.plus(right.join());
+        }
+    }
+
+    // Scores the documents in [lo, hi), splitting the range in halves.
+    private class DocumentsTask extends RecursiveAction {
+        // As for ShardTask: a version for RecursiveAction, not a serialized form in use
+        private static final long serialVersionUID = 1L;
+
+        private final CharSequence[] documents;
+        private final TextScore[] scores;
+        private final int lo;
+        private final int hi;
+
+        DocumentsTask(CharSequence[] documents, TextScore[] scores, int lo, int hi) {
+            this.documents = documents;
+            this.scores = scores;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo == 1) {
+                scores[lo] = score(documents[lo]);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new DocumentsTask(documents, scores, lo, mid), new DocumentsTask(documents, scores, mid, hi));
+        }
+    }
+}
@@ -0,0 +1,283 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+/** A trained language model, saved in a compact binary file and served straight from a memory mapping.
+ *  Loading a snapshot maps the file and reads its header; no object is created per context, and
+ *  generate reads the contexts from the mapping. With the same seed, a snapshot generates the same
+ *  text as the model that was saved.
+ *  <p>
+ *  File layout (version 1, big-endian):
+ *  <pre>
+ *  header:  int magic ("LMSN"), int version, int windowLength, int contextCount,
+ *           long entryCount, long indexOffset
+ *  records: for every context, in increasing order of its key:
+ *           char[windowLength] key, int total, int size, char[size] successors, int[size] counts
+ *           (successors are in list order, so the cumulative counts give the same draws as a List)
+ *  index:   long[contextCount], the file offset of every record
+ *  </pre>
+ *  The file is mapped in segments of at most 1 GB, and records are addressed by long offsets,
+ *  so a snapshot is not limited to the 2 GB of a single mapping. */
+public class ModelSnapshot {
+
+    // The first int of every snapshot file
+    static final int MAGIC = 0x4C4D534E;
+
+    // The version of the file layout
+    static final int VERSION = 1;
+
+    // The size of the header, in bytes
+    static final int HEADER_SIZE = 32;
+
+    // The log2 of the size of a segment of the mapping, by default
+    static final int SEGMENT_SHIFT = 30;
+
+    // The segments of the mapping of the snapshot file. Segment i maps the file from
+    // i << segmentShift, and overlaps the next segment by 8 bytes, so that every char, int
+    // and long of the file can be read from a single segment.
+    private final MappedByteBuffer[] segments;
+
+    // The log2 of the size of a segment, and the mask of an offset in a segment
+    private final int segmentShift;
+    private final long segmentMask;
+
+    // The window length used in this model.
+    private final int windowLength;
+
+    // The number of contexts in this model.
+    private final int contextCount;
+
+    // The offset of the index in the file
+    private final long indexOffset;
+
+    // The random number generator used by this model.
+    private Random randomGenerator;
+
+    private ModelSnapshot(String fileName, int segmentShift, Random randomGenerator) {
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1L << segmentShift) - 1;
+        this.segments = map(fileName, segmentShift);
+        this.randomGenerator = randomGenerator;
+        if (segments[0].capacity() < HEADER_SIZE || getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a model snapshot");
+        }
+        if (getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Unsupported snapshot version: " + getInt(4));
+        }
+        windowLength = getInt(8);
+        contextCount = getInt(12);
+        indexOffset = getLong(24);
+    }
+
+    /** Saves the given model in the given snapshot file. */
+    public static void save(CompactLanguageModel model, String fileName) {
+        String[] keys = new String[model.getSize()];
+        for (int id = 0; id < keys.length; id++) {
+            keys[id] = model.contexts.keyAt(id);
+        }
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> keys[a].compareTo(keys[b]));
+        SnapshotWriter writer = new SnapshotWriter(fileName, model.windowLength);
+        model.pack();
+        char[] chars = new char[16];
+        int[] counts = new int[16];
+        for (int i = 0; i < order.length; i++) {
+            int from = model.heads[order[i]];
+            int size = model.heads[order[i] + 1] - from;
+            if (size > chars.length) {
+                chars = new char[size];
+                counts = new int[size];
+            }
+            System.arraycopy(model.entryChars, from, chars, 0, size);
+            System.arraycopy(model.entryCounts, from, counts, 0, size);
+            writer.add(keys[order[i]], chars, counts, size);
+        }
+        writer.close();
+    }
+
+    /** Saves the given model in the given snapshot file. */
+    public static void save(LanguageModel model, String fileName) {
+        String[] keys = model.CharDataMap.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
+        SnapshotWriter writer = new SnapshotWriter(fileName, model.windowLength);
+        for (String key : keys) {
+            List list = model.CharDataMap.get(key);
+            char[] chars = new char[list.getSize()];
+            int[] counts = new int[list.getSize()];
+            ListIterator it = list.listIterator(0);
+            for (int j = 0; it.hasNext(); j++) {
+                CharData cd = it.next();
+                chars[j] = cd.chr;
+                counts[j] = cd.count;
+            }
+            writer.add(key, chars, counts, chars.length);
+        }
+        writer.close();
+    }
+
+    /** Loads the given snapshot file, with a given seed value. */
+    public static ModelSnapshot load(String fileName, int seed) {
+        return new ModelSnapshot(fileName, SEGMENT_SHIFT, new Random(seed));
+    }
+
+    /** Loads the given snapshot file. */
+    public static ModelSnapshot load(String fileName) {
+        return new ModelSnapshot(fileName, SEGMENT_SHIFT, new Random());
+    }
+
+    // Loads the given snapshot file, with a given seed value, mapped in segments of 1 << segmentShift bytes
+    static ModelSnapshot load(String fileName, int seed, int segmentShift) {
+        return new ModelSnapshot(fileName, segmentShift, new Random(seed));
+    }
+
+    // Maps the given file in segments of 1 << segmentShift bytes, each overlapping the next one by 8 bytes
+    private static MappedByteBuffer[] map(String fileName, int segmentShift) {
+        try (RandomAccessFile file = new RandomAccessFile(new File(fileName), "r")) {
+            long length = file.length();
+            long segmentSize = 1L << segmentShift;
+            int count = (int) Math.max(1, (length + segmentSize - 1) >>> segmentShift);
+            MappedByteBuffer[] segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long from = (long) i << segmentShift;
+                long size = Math.min(segmentSize + 8, length - from);
+                segments[i] = file.getChannel().map(FileChannel.MapMode.READ_ONLY, from, size);
+            }
+            return segments;
+        }
+        catch (IOException ioe) {
+            throw new IllegalArgumentException("Could not open " + fileName, ioe);
+        }
+    }
+
+    // Returns the char at the given offset of the file
+    private char getChar(long offset) {
+        return segments[(int) (offset >>> segmentShift)].getChar((int) (offset & segmentMask));
+    }
+
+    // Returns the int at the given offset of the file
+    private int getInt(long offset) {
+        return segments[(int) (offset >>> segmentShift)].getInt((int) (offset & segmentMask));
+    }
+
+    // Returns the long at the given offset of the file
+    private long getLong(long offset) {
+        return segments[(int) (offset >>> segmentShift)].getLong((int) (offset & segmentMask));
+    }
+
+    /** Returns the window length of this model. */
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    /** Returns the number of contexts in this model. */
+    public int getSize() {
+        return contextCount;
+    }
+
+    /** Returns the offset of the record of the window made of the windowLength characters of
+     *  the given text that start at the given index, or -1 if there is no such window. */
+    long find(CharSequence text, int from) {
+        int lo = 0;
+        int hi = contextCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long record = getLong(indexOffset + 8L * mid);
+            int cmp = 0;
+            for (int i = 0; i < windowLength && cmp == 0; i++) {
+                cmp = getChar(record + 2 * i) - text.charAt(from + i);
+            }
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return record;
+            }
+        }
+        return -1;
+    }
+
+    // Returns the sum of the counts of the given record
+    int totalAt(long record) {
+        return getInt(record + 2 * windowLength);
+    }
+
+    // Returns the number of successors of the given record
+    int sizeAt(long record) {
+        return getInt(record + 2 * windowLength + 4);
+    }
+
+    // Returns the successor at the given index of the given record (in list order)
+    char charAt(long record, int index) {
+        return getChar(record + 2 * windowLength + 8 + 2 * index);
+    }
+
+    // Returns the count of the successor at the given index of the given record
+    int countAt(long record, int index) {
+        return getInt(record + 2 * windowLength + 8 + 2 * sizeAt(record) + 4L * index);
+    }
+
+    /** Returns the number of times that the given character followed the given window. */
+    public int getCount(String window, char c) {
+        if (window.length() != windowLength) return 0;
+        long record = find(window, 0);
+        if (record == -1) return 0;
+        int size = getInt(record + 2 * windowLength + 4);
+        long chars = record + 2 * windowLength + 8;
+        for (int i = 0; i < size; i++) {
+            if (getChar(chars + 2 * i) == c) {
+                return getInt(chars + 2 * size + 4L * i);
+            }
+        }
+        return 0;
+    }
+
+    // Returns a random successor of the given record, drawn like LanguageModel.getRandomChar.
+    char getRandomChar(long record, double r) {
+        int total = getInt(record + 2 * windowLength);
+        int size = getInt(record + 2 * windowLength + 4);
+        long chars = record + 2 * windowLength + 8;
+        long counts = chars + 2 * size;
+        double cumulativeProb = 0;
+        for (int i = 0; i < size; i++) {
+            cumulativeProb += (double) getInt(counts + 4L * i) / total;
+            if (cumulativeProb > r) {
+                return getChar(chars + 2 * i);
+            }
+        }
+        return getChar(chars + 2 * (size - 1));
+    }
+
+    /**
+     * Generates a random text, based on the probabilities of the saved model.
+     * @param initialText - text to start with.
+     * @param textLength - the total length of the text to generate
+     * @return the generated text
+     */
+    public String generate(String initialText, int textLength) {
+        // If the length of the initial text provided is less than windowLength, terminate.
+        if (initialText.length() < windowLength) {
+            return initialText;
+        }
+        StringBuilder generatedText = new StringBuilder(initialText);
+
+        // The process stops when the length of the generated text equals textLength.
+        while (generatedText.length() < textLength) {
+            long record = find(generatedText, generatedText.length() - windowLength);
+
+            // If the current window is not found in the model, stop the process.
+            if (record == -1) {
+                break;
+            }
+            generatedText.append(getRandomChar(record, randomGenerator.nextDouble()));
+        }
+        return generatedText.toString();
+    }
+}
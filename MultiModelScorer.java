@@ -0,0 +1,383 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Scores a text under several models in a single pass, to attribute it to the model (e.g. the
+ *  source corpus) that it most likely came from. The models are merged by window length: the
+ *  models of each window length (up to MAX_GROUP_MODELS of them) share one ContextTable of all
+ *  their windows, and each window has one list of the successors that any of these models saw
+ *  after it. Per successor, the
+ *  log-probabilities under all the models are stored next to each other, with the floor
+ *  log-probability of a model in place of a successor that the model never saw, and the
+ *  successor's character is packed with one bit per model that never saw it. So the text is
+ *  read once, and every character costs one table lookup and one successor scan per window
+ *  length. A long text (at least 1/HIT_RATIO as many characters as a group has entries) then
+ *  only counts the hits of every entry, and the row of log-probabilities of every entry that
+ *  was hit is added once, times its hits, at the end of the pass: the cost of a character does
+ *  not depend on the number of models, and adding a model costs one more value per entry that
+ *  was hit. A shorter text adds the row of every character as it is read, so a pass never
+ *  allocates more than its text needs. A single model is scored by its ModelScorer directly.
+ *  A short text gets exactly the scores that each ModelScorer alone would give it. A long text
+ *  gets them up to the rounding of the sums, that are added by entry, not in the order of the
+ *  text. A scorer is immutable, so many threads can score with it at once. */
+public class MultiModelScorer {
+
+    // The largest number of models in a group (one bit of each entry key per model)
+    static final int MAX_GROUP_MODELS = 48;
+
+    // A pass counts the hits of the entries of a group when its text has at least
+    // 1/HIT_RATIO as many characters as the group has entries
+    static final int HIT_RATIO = 8;
+
+    // The names of the models, and the logarithm of the floor probability of each model
+    private final String[] names;
+    private final double[] floorLogProbs;
+
+    // The models, merged by window length
+    private final Group[] groups;
+
+    // The scorer of the only model, or null if there are several models
+    private final ModelScorer single;
+
+    // The models of one window length, merged
+    private static class Group {
+        // The window length of the models, and the indexes of the models
+        final int windowLength;
+        final int[] models;
+
+        // The windows of all the models
+        final ContextTable contexts;
+
+        // The successors of window id (under any of the models) are the entries in [offsets[id], offsets[id + 1])
+        final int[] offsets;
+
+        // Per entry: the successor character in the low 16 bits, and above them one bit per model,
+        // set if the model never saw the successor (bit 16 + j for model j)
+        final long[] keys;
+
+        // Per entry e and model j: the logarithm of the probability of the successor under the
+        // model, or the floor log-probability of the model if it never saw the successor
+        // (logProbs[e * models.length + j])
+        final double[] logProbs;
+
+        Group(int windowLength, int[] models, ModelScorer[] scorers) {
+            this.windowLength = windowLength;
+            this.models = models;
+            int n = models.length;
+
+            // Merges the windows, and maps the window ids of each model to the merged ids
+            contexts = new ContextTable(windowLength);
+            WindowKey window = new WindowKey(windowLength);
+            int[][] ids = new int[n][];
+            for (int j = 0; j < n; j++) {
+                ModelScorer scorer = scorers[models[j]];
+                ids[j] = new int[scorer.contexts.getSize()];
+                for (int id = 0; id < ids[j].length; id++) {
+                    window.clear();
+                    for (int i = 0; i < windowLength; i++) {
+                        window.add(scorer.contexts.charAt(id, i));
+                    }
+                    int merged = contexts.find(window);
+                    ids[j][id] = (merged == -1) ? contexts.add(window) : merged;
+                }
+            }
+
+            // Collects the ranges of every model under each merged window
+            int size = contexts.getSize();
+            int[] from = new int[size * n];
+            int[] to = new int[size * n];
+            for (int j = 0; j < n; j++) {
+                ModelScorer scorer = scorers[models[j]];
+                for (int id = 0; id < ids[j].length; id++) {
+                    from[ids[j][id] * n + j] = scorer.offsets[id];
+                    to[ids[j][id] * n + j] = scorer.offsets[id + 1];
+                }
+            }
+
+            // Lists the successors of each merged window, in the order in which the models list them
+            offsets = new int[size + 1];
+            char[] union = new char[16];
+            int entries = 0;
+            char[] allChars = new char[1024];
+            for (int id = 0; id < size; id++) {
+                int length = 0;
+                for (int j = 0; j < n; j++) {
+                    char[] modelChars = scorers[models[j]].chars;
+                    for (int e = from[id * n + j]; e < to[id * n + j]; e++) {
+                        if (indexOf(union, length, modelChars[e]) != -1) continue;
+                        if (length == union.length) union = Arrays.copyOf(union, length * 2);
+                        union[length++] = modelChars[e];
+                    }
+                }
+                if (entries + length > allChars.length) {
+                    allChars = Arrays.copyOf(allChars, Math.max(allChars.length * 2, entries + length));
+                }
+                System.arraycopy(union, 0, allChars, entries, length);
+                entries += length;
+                offsets[id + 1] = entries;
+            }
+
+            // Fills in the key and the row of every entry
+            keys = new long[entries];
+            logProbs = new double[entries * n];
+            for (int id = 0; id < size; id++) {
+                for (int e = offsets[id]; e < offsets[id + 1]; e++) {
+                    keys[e] = allChars[e];
+                    for (int j = 0; j < n; j++) {
+                        ModelScorer scorer = scorers[models[j]];
+                        int k = from[id * n + j];
+                        int end = to[id * n + j];
+                        while (k < end && scorer.chars[k] != allChars[e]) {
+                            k++;
+                        }
+                        if (k < end) {
+                            logProbs[e * n + j] = scorer.logProbs[k];
+                        } else {
+                            logProbs[e * n + j] = scorer.floorLogProb;
+                            keys[e] |= 1L << (16 + j);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Returns the index of the given character in the first length chars of the given array, or -1
+        private static int indexOf(char[] array, int length, char c) {
+            for (int i = 0; i < length; i++) {
+                if (array[i] == c) return i;
+            }
+            return -1;
+        }
+    }
+
+    /** Constructs a scorer of the given models, with the given names. */
+    public MultiModelScorer(String[] names, ModelScorer[] scorers) {
+        if (names.length != scorers.length || names.length == 0) {
+            throw new IllegalArgumentException("expected one name per model, and at least one model");
+        }
+        this.names = names.clone();
+        floorLogProbs = new double[scorers.length];
+        int[] lengths = new int[scorers.length];
+        int distinct = 0;
+        for (int m = 0; m < scorers.length; m++) {
+            floorLogProbs[m] = scorers[m].floorLogProb;
+            int w = scorers[m].getWindowLength();
+            int k = 0;
+            while (k < distinct && lengths[k] != w) {
+                k++;
+            }
+            if (k == distinct) lengths[distinct++] = w;
+        }
+        // The models of a window length are split into groups of at most MAX_GROUP_MODELS models
+        ArrayList<Group> merged = new ArrayList<Group>();
+        for (int k = 0; k < distinct; k++) {
+            int[] models = new int[scorers.length];
+            int n = 0;
+            for (int m = 0; m < scorers.length; m++) {
+                if (scorers[m].getWindowLength() == lengths[k]) models[n++] = m;
+            }
+            for (int from = 0; from < n; from += MAX_GROUP_MODELS) {
+                int[] group = Arrays.copyOfRange(models, from, Math.min(n, from + MAX_GROUP_MODELS));
+                merged.add(new Group(lengths[k], group, scorers));
+            }
+        }
+        groups = merged.toArray(new Group[0]);
+        single = (scorers.length == 1) ? scorers[0] : null;
+    }
+
+    /** Returns the number of models. */
+    public int getSize() {
+        return names.length;
+    }
+
+    /** Returns the attribution of the given text. */
+    public Attribution score(CharSequence text) {
+        if (single != null) {
+            return new Attribution(names, new TextScore[] {single.score(text)});
+        }
+        Pass pass = new Pass(text.length());
+        char[] buffer = new char[Math.min(text.length(), LanguageModel.BUFFER_SIZE)];
+        for (int from = 0; from < text.length(); from += buffer.length) {
+            int n = Math.min(buffer.length, text.length() - from);
+            for (int i = 0; i < n; i++) {
+                buffer[i] = text.charAt(from + i);
+            }
+            pass.add(buffer, n);
+        }
+        return pass.toAttribution();
+    }
+
+    /** Returns the attribution of the text in the given file (trailing whitespace excluded, as in training). */
+    public Attribution scoreFile(String fileName) {
+        if (single != null) {
+            return new Attribution(names, new TextScore[] {single.scoreFile(fileName)});
+        }
+        Pass pass = new Pass(new java.io.File(fileName).length());
+        char[] buffer = new char[LanguageModel.BUFFER_SIZE];
+        CorpusReader reader = new CorpusReader(fileName);
+        int n;
+        while ((n = reader.read(buffer)) > 0) {
+            pass.add(buffer, n);
+        }
+        reader.close();
+        return pass.toAttribution();
+    }
+
+    /** Returns the attributions of the given documents, each scored on its own, using the given
+     *  number of threads: attributions[i] is the attribution of documents[i]. */
+    public Attribution[] score(CharSequence[] documents, int threads) {
+        Attribution[] attributions = new Attribution[documents.length];
+        if (documents.length == 0) return attributions;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new DocumentsTask(documents, attributions, 0, documents.length));
+        } finally {
+            pool.shutdown();
+        }
+        return attributions;
+    }
+
+    // The state of one pass over a text: the window and the number of scored characters of every group,
+    // the running sums of every model, by group and by the index of the model in its group, and, for
+    // the groups whose hits are counted, the hits of every entry and the number of unseen windows
+    private class Pass {
+        private final WindowKey[] keys = new WindowKey[groups.length];
+        private final long[] scored = new long[groups.length];
+        private final long[][] unseen = new long[groups.length][];
+        private final double[][] logLikelihoods = new double[groups.length][];
+        private final int[][] hits = new int[groups.length][];
+        private final long[] misses = new long[groups.length];
+
+        // Starts a pass over a text of about the given number of characters
+        Pass(long length) {
+            for (int g = 0; g < groups.length; g++) {
+                keys[g] = new WindowKey(groups[g].windowLength);
+                unseen[g] = new long[groups[g].models.length];
+                logLikelihoods[g] = new double[groups[g].models.length];
+                if (length * HIT_RATIO >= groups[g].keys.length) {
+                    hits[g] = new int[groups[g].keys.length];
+                }
+            }
+        }
+
+        // Scores the first n characters of the given buffer under every model. The groups are
+        // independent, so each group goes over the whole buffer in turn, in a tight loop.
+        void add(char[] buffer, int n) {
+            for (int g = 0; g < groups.length; g++) {
+                Group group = groups[g];
+                WindowKey window = keys[g];
+                int[] groupHits = hits[g];
+                for (int i = 0; i < n; i++) {
+                    char c = buffer[i];
+                    if (window.isFull()) {
+                        int e = entryOf(group, window, c);
+                        if (groupHits == null) {
+                            addRow(g, e, 1);
+                        } else if (e == -1) {
+                            misses[g]++;
+                        } else {
+                            groupHits[e]++;
+                        }
+                        scored[g]++;
+                    }
+                    window.add(c);
+                }
+            }
+        }
+
+        // Returns the entry of the given character after the given window in the given group,
+        // or -1 if no model of the group saw the window, or the character after it
+        private int entryOf(Group group, WindowKey window, char c) {
+            int id = group.contexts.find(window);
+            if (id == -1) return -1;
+            long[] keys = group.keys;
+            int end = group.offsets[id + 1];
+            for (int k = group.offsets[id]; k < end; k++) {
+                if ((char) keys[k] == c) return k;
+            }
+            return -1;
+        }
+
+        // Adds the given number of hits of the given entry (or of an unseen event, if the entry
+        // is -1) to the sums of the models of the given group
+        private void addRow(int g, int e, long times) {
+            Group group = groups[g];
+            double[] groupLogLikelihoods = logLikelihoods[g];
+            long[] groupUnseen = unseen[g];
+            int n = groupUnseen.length;
+            if (e == -1) {
+                for (int j = 0; j < n; j++) {
+                    groupLogLikelihoods[j] += times * floorLogProbs[group.models[j]];
+                    groupUnseen[j] += times;
+                }
+                return;
+            }
+            double[] logProbs = group.logProbs;
+            int row = e * n;
+            for (int j = 0; j < n; j++) {
+                groupLogLikelihoods[j] += times * logProbs[row + j];
+            }
+            long unseenBits = group.keys[e] >>> 16;
+            if (unseenBits != 0) {
+                for (int j = 0; j < n; j++) {
+                    groupUnseen[j] += times * ((unseenBits >>> j) & 1);
+                }
+            }
+        }
+
+        // Adds the counted hits of every group to its sums, in the order of the entries
+        private void addHits() {
+            for (int g = 0; g < groups.length; g++) {
+                int[] groupHits = hits[g];
+                if (groupHits == null) continue;
+                for (int e = 0; e < groupHits.length; e++) {
+                    if (groupHits[e] != 0) addRow(g, e, groupHits[e]);
+                }
+                if (misses[g] != 0) addRow(g, -1, misses[g]);
+                hits[g] = null;
+            }
+        }
+
+        // Returns the attribution of the characters that were added
+        Attribution toAttribution() {
+            addHits();
+            TextScore[] scores = new TextScore[names.length];
+            for (int g = 0; g < groups.length; g++) {
+                int[] models = groups[g].models;
+                for (int j = 0; j < models.length; j++) {
+                    scores[models[j]] = new TextScore(scored[g], unseen[g][j], logLikelihoods[g][j]);
+                }
+            }
+            return new Attribution(names, scores);
+        }
+    }
+
+    // Scores the documents in [lo, hi), splitting the range in halves.
+    private class DocumentsTask extends RecursiveAction {
+        // Only for RecursiveAction, which is Serializable: the documents are CharSequences,
+        // which need not be, so a task is never written.
+        private static final long serialVersionUID = 1L;
+
+        private final CharSequence[] documents;
+        private final Attribution[] attributions;
+        private final int lo;
+        private final int hi;
+
+        DocumentsTask(CharSequence[] documents, Attribution[] attributions, int lo, int hi) {
+            this.documents = documents;
+            this.attributions = attributions;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo == 1) {
+                attributions[lo] = score(documents[lo]);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new DocumentsTask(documents, attributions, lo, mid), new DocumentsTask(documents, attributions, mid, hi));
+        }
+    }
+}
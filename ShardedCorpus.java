@@ -0,0 +1,78 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** Splits a UTF-8 corpus file into byte ranges that can be trained on separately.
+ *  Every range starts on a character boundary, and the characters that precede a range
+ *  can be read back to form the window that the range starts with. */
+public class ShardedCorpus {
+
+    /** Splits the given file (without its trailing whitespace) into at most the given number of
+     *  ranges of about the same size. Returns the bounds of the ranges: range i is the bytes in
+     *  [bounds[i], bounds[i + 1]). Each bound is the offset of the first byte of a character. */
+    public static long[] split(String fileName, int shards) {
+        try (FileChannel channel = open(fileName)) {
+            long end = CorpusReader.trimmedLength(channel);
+            shards = (int) Math.max(1, Math.min(shards, end));
+            long[] bounds = new long[shards + 1];
+            ByteBuffer one = ByteBuffer.allocate(1);
+            for (int i = 1; i < shards; i++) {
+                long bound = Math.max(bounds[i - 1], end * i / shards);
+                // Moves forward past continuation bytes (10xxxxxx) to the start of a character
+                while (bound < end && (byteAt(channel, one, bound) & 0xC0) == 0x80) {
+                    bound++;
+                }
+                bounds[i] = bound;
+            }
+            bounds[shards] = end;
+            return bounds;
+        }
+        catch (IOException ioe) {
+            throw new IllegalArgumentException("Could not open " + fileName, ioe);
+        }
+    }
+
+    /** Returns a window holding the (at most) windowLength characters that precede the given
+     *  offset of the given file. The offset must be the first byte of a character. */
+    public static WindowKey windowBefore(String fileName, long offset, int windowLength) {
+        WindowKey window = new WindowKey(windowLength);
+        if (offset == 0) {
+            return window;
+        }
+        // A character takes at most 4 bytes, and at most 2 chars
+        long from = Math.max(0, offset - 4L * (windowLength + 1));
+        try (FileChannel channel = open(fileName)) {
+            ByteBuffer one = ByteBuffer.allocate(1);
+            while (from < offset && (byteAt(channel, one, from) & 0xC0) == 0x80) {
+                from++;
+            }
+        }
+        catch (IOException ioe) {
+            throw new IllegalArgumentException("Could not open " + fileName, ioe);
+        }
+        CorpusReader reader = new CorpusReader(fileName, from, offset);
+        char[] buffer = new char[(int) (offset - from) + 2];
+        int n;
+        while ((n = reader.read(buffer)) > 0) {
+            for (int i = 0; i < n; i++) {
+                window.add(buffer[i]);
+            }
+        }
+        reader.close();
+        return window;
+    }
+
+    // Opens the given file for reading
+    private static FileChannel open(String fileName) throws IOException {
+        return new RandomAccessFile(new File(fileName), "r").getChannel();
+    }
+
+    // Reads a single byte of the file
+    private static int byteAt(FileChannel channel, ByteBuffer one, long position) throws IOException {
+        one.clear();
+        channel.read(one, position);
+        return one.get(0);
+    }
+}
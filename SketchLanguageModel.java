@@ -0,0 +1,424 @@
+import java.util.Random;
+
+/** A language model that trains in a fixed amount of memory, whatever the size of the corpus.
+ *  The windows are tracked with the Space-Saving algorithm: at most maxContexts windows are
+ *  monitored, and when a window that is not monitored is seen and the table is full, it replaces
+ *  the monitored window with the smallest count, and inherits that count (as its error). Every
+ *  window whose count is larger than total / maxContexts is therefore monitored.
+ *  The counts of the (window, character) pairs are estimated with a count-min sketch of
+ *  sketchDepth rows of sketchWidth counters. An estimate is never smaller than the true count,
+ *  and with probability at least 1 - e^-sketchDepth it exceeds it by at most e / sketchWidth
+ *  of the number of characters that were counted (see getErrorBound).
+ *  Each monitored window also keeps up to SUCCESSORS candidate characters, the ones with the
+ *  largest estimates, and generates from them in proportion to their estimates. Since only the
+ *  frequent windows are monitored, generate draws only among the candidates that lead to a
+ *  monitored window, and stops when there are none.
+ *  Training allocates nothing per character: windows are looked up by the rolling hash of a
+ *  WindowKey in an open-addressing index of slots, and their characters are kept in a char array. */
+public class SketchLanguageModel {
+
+    // The largest number of candidate successors that are kept for a window
+    static final int SUCCESSORS = 8;
+
+    // The window length used in this model.
+    private final int windowLength;
+
+    // The number of windows that can be monitored
+    private final int maxContexts;
+
+    // Per slot: the characters of its window (windowChars[slot * windowLength + i]), the hash code
+    // of its window, its count and the error of its count
+    private final char[] windowChars;
+    private final int[] hashes;
+    private final long[] counts;
+    private final long[] errors;
+
+    // An open-addressing index of the used slots, by the hash codes of their windows.
+    // Each entry holds (slot + 1), or 0 if empty. Its capacity is a power of 2, at least 2 * maxContexts.
+    private final int[] index;
+
+    // A min-heap of the used slots, ordered by count, and the position of each slot in the heap
+    private final int[] heap;
+    private final int[] heapIndex;
+    private int size;
+
+    // The candidate successors of each slot: successors[slot * SUCCESSORS + i], i < successorSizes[slot]
+    private final char[] successors;
+    private final byte[] successorSizes;
+
+    // The count-min sketch of the (window, character) pairs: sketchDepth rows of sketchWidth counters
+    private final int[] sketch;
+    private final int sketchWidth;
+    private final int sketchDepth;
+
+    // The number of (window, character) pairs that were counted
+    private long total;
+
+    // The random number generator used by this model.
+    private Random randomGenerator;
+
+    /** Constructs a model with the given window length, that monitors at most maxContexts windows
+     *  and estimates counts with a sketchDepth x sketchWidth count-min sketch (sketchWidth is
+     *  rounded up to a power of 2), and generates with a given seed value. */
+    public SketchLanguageModel(int windowLength, int maxContexts, int sketchWidth, int sketchDepth, int seed) {
+        this(windowLength, maxContexts, sketchWidth, sketchDepth, new Random(seed));
+    }
+
+    /** Constructs a model with the given window length and sizes (see above). */
+    public SketchLanguageModel(int windowLength, int maxContexts, int sketchWidth, int sketchDepth) {
+        this(windowLength, maxContexts, sketchWidth, sketchDepth, new Random());
+    }
+
+    private SketchLanguageModel(int windowLength, int maxContexts, int sketchWidth, int sketchDepth,
+                                Random randomGenerator) {
+        if (maxContexts < 1 || sketchWidth < 1 || sketchDepth < 1) {
+            throw new IllegalArgumentException("sizes must be positive");
+        }
+        this.windowLength = windowLength;
+        this.maxContexts = maxContexts;
+        this.randomGenerator = randomGenerator;
+        windowChars = new char[maxContexts * windowLength];
+        hashes = new int[maxContexts];
+        int capacity = 1;
+        while (capacity < 2 * maxContexts) {
+            capacity <<= 1;
+        }
+        index = new int[capacity];
+        counts = new long[maxContexts];
+        errors = new long[maxContexts];
+        heap = new int[maxContexts];
+        heapIndex = new int[maxContexts];
+        successors = new char[maxContexts * SUCCESSORS];
+        successorSizes = new byte[maxContexts];
+        int width = 1;
+        while (width < sketchWidth) {
+            width <<= 1;
+        }
+        this.sketchWidth = width;
+        this.sketchDepth = sketchDepth;
+        sketch = new int[width * sketchDepth];
+    }
+
+    /** Returns the number of monitored windows. */
+    public int getSize() {
+        return size;
+    }
+
+    /** Returns the number of (window, character) pairs that were counted. */
+    public long getTotal() {
+        return total;
+    }
+
+    /** Checks if the given window is monitored. */
+    public boolean isMonitored(String window) {
+        return slotOf(window) != -1;
+    }
+
+    /** Returns the estimated number of times that the given window was seen (0 if it is not monitored).
+     *  The estimate is at least the true count, and at most the true count plus getContextError(window). */
+    public long getContextCount(String window) {
+        int slot = slotOf(window);
+        return (slot == -1) ? 0 : counts[slot];
+    }
+
+    /** Returns the largest possible overestimate of the count of the given monitored window. */
+    public long getContextError(String window) {
+        int slot = slotOf(window);
+        return (slot == -1) ? 0 : errors[slot];
+    }
+
+    /** Returns the estimated number of times that the given character followed the given window. */
+    public long getCount(String window, char c) {
+        return estimate(window.hashCode(), c);
+    }
+
+    /** Returns the error bound of the pair count estimates: with probability at least
+     *  1 - e^-sketchDepth, an estimate exceeds the true count by at most this number. */
+    public long getErrorBound() {
+        return (long) Math.ceil(Math.E / sketchWidth * total);
+    }
+
+    /** Returns the number of bytes used by the arrays of this model. */
+    public long getFootprint() {
+        return 4L * sketch.length + 4L * index.length
+                + (2L * windowLength + 4 + 8 + 8 + 4 + 4 + 1 + 2 * SUCCESSORS) * maxContexts;
+    }
+
+    /** Builds the model from the text in the given file (the corpus). May be called for several
+     *  files, and counts all of them. Memory does not grow with the length of the text. */
+    public void train(String fileName) {
+        WindowKey window = new WindowKey(windowLength);
+        char[] buffer = new char[LanguageModel.BUFFER_SIZE];
+        CorpusReader reader = new CorpusReader(fileName);
+        int n;
+        while ((n = reader.read(buffer)) > 0) {
+            for (int i = 0; i < n; i++) {
+                char c = buffer[i];
+
+                // The first windowLength characters only form the first window.
+                if (!window.isFull()) {
+                    window.add(c);
+                    continue;
+                }
+                update(window, c);
+                window.add(c);
+            }
+        }
+        reader.close();
+    }
+
+    // Counts the given character as a successor of the given (full) window.
+    void update(WindowKey window, char c) {
+        total++;
+        int hash = window.hashCode();
+        int estimate = add(hash, c);
+        int slot = find(window, hash, false, c);
+        if (slot != -1) {
+            counts[slot]++;
+            siftDown(heapIndex[slot]);
+        } else if (size < maxContexts) {
+            slot = size;
+            setWindow(slot, window, hash);
+            counts[slot] = 1;
+            errors[slot] = 0;
+            heap[size] = slot;
+            heapIndex[slot] = size;
+            size++;
+            siftUp(size - 1);
+        } else {
+            // Replaces the monitored window with the smallest count
+            slot = heap[0];
+            removeFromIndex(slot);
+            setWindow(slot, window, hash);
+            errors[slot] = counts[slot];
+            counts[slot]++;
+            successorSizes[slot] = 0;
+            siftDown(0);
+        }
+        addSuccessor(slot, hash, c, estimate);
+    }
+
+    // Returns the slot of the given window, or -1 if it is not monitored.
+    private int slotOf(String window) {
+        if (window.length() != windowLength) return -1;
+        WindowKey key = new WindowKey(windowLength);
+        for (int i = 0; i < windowLength; i++) {
+            key.add(window.charAt(i));
+        }
+        return find(key, key.hashCode(), false, (char) 0);
+    }
+
+    // Returns the slot of a window, or -1 if it is not monitored. If shifted is false, the window
+    // is the given window; otherwise it is the given window without its first character, followed
+    // by next. The given hash is the hash code of the window.
+    private int find(WindowKey window, int hash, boolean shifted, char next) {
+        int mask = index.length - 1;
+        for (int i = ContextTable.spread(hash) & mask; index[i] != 0; i = (i + 1) & mask) {
+            int slot = index[i] - 1;
+            if (hashes[slot] == hash && matches(slot, window, shifted, next)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    // Checks if the window of the given slot is the window that find describes.
+    private boolean matches(int slot, WindowKey window, boolean shifted, char next) {
+        int from = slot * windowLength;
+        int shift = shifted ? 1 : 0;
+        for (int i = 0; i < windowLength - shift; i++) {
+            if (windowChars[from + i] != window.charAt(i + shift)) return false;
+        }
+        return !shifted || windowChars[from + windowLength - 1] == next;
+    }
+
+    // Returns the hash code of the given window without its first character, followed by next.
+    private int shiftedHash(WindowKey window, char next) {
+        int h = 0;
+        for (int i = 1; i < windowLength; i++) {
+            h = h * WindowKey.HASH_BASE + window.charAt(i);
+        }
+        return h * WindowKey.HASH_BASE + next;
+    }
+
+    // Sets the window of the given (unindexed) slot, and adds the slot to the index.
+    private void setWindow(int slot, WindowKey window, int hash) {
+        int from = slot * windowLength;
+        for (int i = 0; i < windowLength; i++) {
+            windowChars[from + i] = window.charAt(i);
+        }
+        hashes[slot] = hash;
+        int mask = index.length - 1;
+        int i = ContextTable.spread(hash) & mask;
+        while (index[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        index[i] = slot + 1;
+    }
+
+    // Removes the given slot from the index. The entries that follow it in its probe sequence
+    // are shifted back, so that every entry stays reachable from its home position.
+    private void removeFromIndex(int slot) {
+        int mask = index.length - 1;
+        int i = ContextTable.spread(hashes[slot]) & mask;
+        while (index[i] != slot + 1) {
+            i = (i + 1) & mask;
+        }
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (index[j] == 0) break;
+            int home = ContextTable.spread(hashes[index[j] - 1]) & mask;
+            // The entry at j can move to i if its home is not in the cyclic range (i, j]
+            boolean between = (i <= j) ? (i < home && home <= j) : (i < home || home <= j);
+            if (!between) {
+                index[i] = index[j];
+                i = j;
+            }
+        }
+        index[i] = 0;
+    }
+
+    // Adds the given character to the candidates of the given slot, if it is one of the most frequent ones.
+    private void addSuccessor(int slot, int hash, char c, int estimate) {
+        int from = slot * SUCCESSORS;
+        int n = successorSizes[slot];
+        for (int i = 0; i < n; i++) {
+            if (successors[from + i] == c) return;
+        }
+        if (n < SUCCESSORS) {
+            successors[from + n] = c;
+            successorSizes[slot]++;
+            return;
+        }
+        int min = 0;
+        int minEstimate = Integer.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            int e = estimate(hash, successors[from + i]);
+            if (e < minEstimate) {
+                min = i;
+                minEstimate = e;
+            }
+        }
+        if (estimate > minEstimate) {
+            successors[from + min] = c;
+        }
+    }
+
+    // Adds 1 to the counters of the given pair, and returns its new estimate.
+    private int add(int hash, char c) {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < sketchDepth; row++) {
+            int i = row * sketchWidth + column(hash, c, row);
+            estimate = Math.min(estimate, ++sketch[i]);
+        }
+        return estimate;
+    }
+
+    // Returns the estimated count of the given pair: the smallest of its counters.
+    private int estimate(int hash, char c) {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < sketchDepth; row++) {
+            estimate = Math.min(estimate, sketch[row * sketchWidth + column(hash, c, row)]);
+        }
+        return estimate;
+    }
+
+    // Returns the column of the given pair in the given row of the sketch.
+    // The hash is the hash code of the window (the hash code of its String).
+    private int column(int hash, char c, int row) {
+        long h = (((long) hash << 16) | c) * 0x9E3779B97F4A7C15L + row * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 31)) * 0x94D049BB133111EBL;
+        return (int) (h ^ (h >>> 29)) & (sketchWidth - 1);
+    }
+
+    // Moves the heap element at the given position up, while it is smaller than its parent.
+    private void siftUp(int i) {
+        int slot = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (counts[heap[parent]] <= counts[slot]) break;
+            heap[i] = heap[parent];
+            heapIndex[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = slot;
+        heapIndex[slot] = i;
+    }
+
+    // Moves the heap element at the given position down, while it is larger than one of its children.
+    private void siftDown(int i) {
+        int slot = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) child++;
+            if (counts[slot] <= counts[heap[child]]) break;
+            heap[i] = heap[child];
+            heapIndex[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = slot;
+        heapIndex[slot] = i;
+    }
+
+    /**
+     * Generates a random text, based on the estimated counts of the monitored windows.
+     * @param initialText - text to start with.
+     * @param textLength - the total length of the text to generate
+     * @return the generated text
+     */
+    public String generate(String initialText, int textLength) {
+        // If the length of the initial text provided is less than windowLength, terminate.
+        if (initialText.length() < windowLength) {
+            return initialText;
+        }
+
+        StringBuilder generatedText = new StringBuilder(initialText);
+        WindowKey window = new WindowKey(windowLength);
+        for (int i = initialText.length() - windowLength; i < initialText.length(); i++) {
+            window.add(initialText.charAt(i));
+        }
+        int[] estimates = new int[SUCCESSORS];
+
+        // The process stops when the length of the generated text equals textLength.
+        while (generatedText.length() < textLength) {
+            int hash = window.hashCode();
+            int slot = find(window, hash, false, (char) 0);
+
+            // If the current window is not monitored, stop the process.
+            if (slot == -1) {
+                break;
+            }
+
+            // Only the candidates that lead to a monitored window can be drawn
+            int from = slot * SUCCESSORS;
+            int n = successorSizes[slot];
+            long sum = 0;
+            for (int i = 0; i < n; i++) {
+                char c = successors[from + i];
+                boolean leadsToMonitored = find(window, shiftedHash(window, c), true, c) != -1;
+                estimates[i] = leadsToMonitored ? estimate(hash, c) : 0;
+                sum += estimates[i];
+            }
+            if (sum == 0) {
+                break;
+            }
+            double r = randomGenerator.nextDouble();
+            double cumulativeProb = 0;
+            char nextChar = 0;
+            for (int i = 0; i < n; i++) {
+                if (estimates[i] == 0) continue;
+                nextChar = successors[from + i];
+                cumulativeProb += (double) estimates[i] / sum;
+                if (cumulativeProb > r) {
+                    break;
+                }
+            }
+            generatedText.append(nextChar);
+            window.add(nextChar);
+        }
+
+        return generatedText.toString();
+    }
+}
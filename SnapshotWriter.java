@@ -0,0 +1,125 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/** Writes a model snapshot file, one context at a time.
+ *  Contexts must be added in increasing (String.compareTo) order of their keys.
+ *  The layout of the file is described in ModelSnapshot. */
+public class SnapshotWriter {
+
+    // The name of the snapshot file
+    private final String fileName;
+
+    // The window length of the model
+    private final int windowLength;
+
+    // The output stream of the records
+    private DataOutputStream out;
+
+    // The offset in the file of the next record
+    private long offset;
+
+    // The offset of every record that was written
+    private long[] index;
+
+    // The number of contexts, and of successor entries, that were written
+    private int contextCount;
+    private long entryCount;
+
+    // The key of the last context that was written
+    private String lastKey;
+
+    // The size of the output buffer, by default
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Creates the given snapshot file, for a model with the given window length. */
+    public SnapshotWriter(String fileName, int windowLength) {
+        this(fileName, windowLength, BUFFER_SIZE);
+    }
+
+    /** Creates the given snapshot file, for a model with the given window length,
+     *  that is written through an output buffer of the given size. */
+    public SnapshotWriter(String fileName, int windowLength, int bufferSize) {
+        this.fileName = fileName;
+        this.windowLength = windowLength;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), bufferSize));
+            // The header is written again, with the final counts, when the snapshot is closed
+            writeHeader(out, 0);
+        }
+        catch (IOException ioe) {
+            throw new IllegalArgumentException("Could not create " + fileName, ioe);
+        }
+        offset = ModelSnapshot.HEADER_SIZE;
+        index = new long[1024];
+        contextCount = 0;
+        entryCount = 0;
+        lastKey = null;
+    }
+
+    /** Adds a context with the given key, and the given successors and counts (in list order). */
+    public void add(String key, char[] chars, int[] counts, int size) {
+        if (key.length() != windowLength) {
+            throw new IllegalArgumentException("Key length: " + key.length() + ", expected: " + windowLength);
+        }
+        if (lastKey != null && lastKey.compareTo(key) >= 0) {
+            throw new IllegalArgumentException("Keys must be added in increasing order: " + lastKey + ", " + key);
+        }
+        lastKey = key;
+        if (contextCount == index.length) {
+            index = Arrays.copyOf(index, contextCount * 2);
+        }
+        index[contextCount++] = offset;
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            total += counts[i];
+        }
+        try {
+            out.writeChars(key);
+            out.writeInt(total);
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeChar(chars[i]);
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeInt(counts[i]);
+            }
+        }
+        catch (IOException ioe) {
+            throw new IllegalStateException("Could not write " + fileName, ioe);
+        }
+        offset += 2L * windowLength + 8 + 6L * size;
+        entryCount += size;
+    }
+
+    /** Writes the index and the header, and closes the file. */
+    public void close() {
+        try {
+            long indexOffset = offset;
+            for (int i = 0; i < contextCount; i++) {
+                out.writeLong(index[i]);
+            }
+            out.close();
+            try (RandomAccessFile file = new RandomAccessFile(fileName, "rw")) {
+                file.seek(0);
+                writeHeader(file, indexOffset);
+            }
+        }
+        catch (IOException ioe) {
+            throw new IllegalStateException("Could not write " + fileName, ioe);
+        }
+    }
+
+    // Writes the header of the snapshot
+    private void writeHeader(java.io.DataOutput header, long indexOffset) throws IOException {
+        header.writeInt(ModelSnapshot.MAGIC);
+        header.writeInt(ModelSnapshot.VERSION);
+        header.writeInt(windowLength);
+        header.writeInt(contextCount);
+        header.writeLong(entryCount);
+        header.writeLong(indexOffset);
+    }
+}
@@ -0,0 +1,59 @@
+/** The score of a text under a language model: the number of characters that were scored, the
+ *  sum of the natural logarithms of their probabilities, and the number of them that the model
+ *  had never seen after their window (and that were scored with the floor probability).
+ *  Scores of consecutive parts of a text add up to the score of the whole text. */
+public class TextScore {
+
+    // The number of characters that were scored
+    private final long chars;
+
+    // The number of scored characters that were unseen events
+    private final long unseen;
+
+    // The sum of the natural logarithms of the probabilities of the scored characters
+    private final double logLikelihood;
+
+    /** Constructs a score of the given number of characters, unseen events and log-likelihood. */
+    public TextScore(long chars, long unseen, double logLikelihood) {
+        this.chars = chars;
+        this.unseen = unseen;
+        this.logLikelihood = logLikelihood;
+    }
+
+    /** Returns the number of characters that were scored. */
+    public long getChars() {
+        return chars;
+    }
+
+    /** Returns the number of scored characters that were unseen events. */
+    public long getUnseen() {
+        return unseen;
+    }
+
+    /** Returns the log-likelihood of the text: the sum of the natural logarithms of the
+     *  probabilities of its scored characters. */
+    public double getLogLikelihood() {
+        return logLikelihood;
+    }
+
+    /** Returns the cross-entropy of the text, in bits per character (0 if nothing was scored). */
+    public double getCrossEntropy() {
+        return (chars == 0) ? 0 : -logLikelihood / chars / Math.log(2);
+    }
+
+    /** Returns the perplexity of the text: 2 to the power of its cross-entropy. */
+    public double getPerplexity() {
+        return Math.pow(2, getCrossEntropy());
+    }
+
+    /** Returns the score of this text followed by the given one. */
+    public TextScore plus(TextScore other) {
+        return new TextScore(chars + other.chars, unseen + other.unseen, logLikelihood + other.logLikelihood);
+    }
+
+    /** Returns a string representing this score. */
+    public String toString() {
+        return String.format("(%d chars, %d unseen, %.4f bits/char, perplexity %.4f)",
+                chars, unseen, getCrossEntropy(), getPerplexity());
+    }
+}
@@ -0,0 +1,259 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+/** A language model that is too large for the heap, served from two tiers. The cold tier is a
+ *  ModelSnapshot: every context, in a sorted file that is memory-mapped and binary searched.
+ *  The hot tier is a bounded on-heap cache of the contexts that generate actually visits, each
+ *  decoded once into its successors and their cumulative probabilities, so a hit draws a
+ *  character without touching the mapping.
+ *  The cache holds as many contexts as fit in its heap budget (estimated in bytes, see
+ *  entryBytes), and evicts with the CLOCK algorithm, counting references: every hit raises the
+ *  reference count of its context, up to MAX_REFERENCES, and the clock hand lowers the counts
+ *  as it sweeps, and evicts the first context whose count is 0. So a context that is visited
+ *  often survives several sweeps, and a burst of contexts that are visited once does not flush
+ *  the frequent ones. The counters of hits, misses and evictions tell how well the budget fits
+ *  the prompts. With the same seed, a tiered model generates the same text as the model that
+ *  was saved, whatever its budget. */
+public class TieredLanguageModel {
+
+    // The largest reference count of a cached context
+    static final int MAX_REFERENCES = 3;
+
+    // The estimated heap bytes of a cached context, besides its key and successors:
+    // the HashMap node and Integer, the headers of the arrays and the slot arrays
+    static final int ENTRY_OVERHEAD = 128;
+
+    // The cold tier
+    private final ModelSnapshot snapshot;
+
+    // The window length used in this model.
+    private final int windowLength;
+
+    // The heap budget of the cache, in bytes, and the estimated bytes that it uses
+    private final long heapBudget;
+    private long heapBytes;
+
+    // The cached contexts and their slots, and per slot: the context, its successors, the
+    // cumulative probabilities of its successors, and its reference count
+    private final HashMap<String, Integer> slotOf;
+    private String[] keys;
+    private char[][] successors;
+    private double[][] cps;
+    private byte[] references;
+    private int size;
+
+    // The position of the clock hand
+    private int hand;
+
+    // The number of lookups that were found in the cache, and that were not, and the number of evictions
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    // The random number generator used by this model.
+    private Random randomGenerator;
+
+    /** Loads the given snapshot file, with a cache of the given heap budget (in bytes), and a given seed value. */
+    public TieredLanguageModel(String fileName, long heapBudget, int seed) {
+        this(ModelSnapshot.load(fileName), heapBudget, new Random(seed));
+    }
+
+    /** Loads the given snapshot file, with a cache of the given heap budget (in bytes). */
+    public TieredLanguageModel(String fileName, long heapBudget) {
+        this(ModelSnapshot.load(fileName), heapBudget, new Random());
+    }
+
+    private TieredLanguageModel(ModelSnapshot snapshot, long heapBudget, Random randomGenerator) {
+        if (heapBudget < 0) {
+            throw new IllegalArgumentException("heap budget must not be negative: " + heapBudget);
+        }
+        this.snapshot = snapshot;
+        this.windowLength = snapshot.getWindowLength();
+        this.heapBudget = heapBudget;
+        this.randomGenerator = randomGenerator;
+        slotOf = new HashMap<String, Integer>();
+        keys = new String[16];
+        successors = new char[16][];
+        cps = new double[16][];
+        references = new byte[16];
+    }
+
+    /** Returns the window length of this model. */
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    /** Returns the number of contexts in this model (in the cold tier). */
+    public int getSize() {
+        return snapshot.getSize();
+    }
+
+    /** Returns the number of contexts in the cache. */
+    public int getHotSize() {
+        return size;
+    }
+
+    /** Returns the heap budget of the cache, in bytes. */
+    public long getHeapBudget() {
+        return heapBudget;
+    }
+
+    /** Returns the estimated number of heap bytes that the cache uses (at most the budget). */
+    public long getHeapBytes() {
+        return heapBytes;
+    }
+
+    /** Returns the number of lookups that found their context in the cache. */
+    public long getHits() {
+        return hits;
+    }
+
+    /** Returns the number of lookups that did not find their context in the cache. */
+    public long getMisses() {
+        return misses;
+    }
+
+    /** Returns the number of contexts that were evicted from the cache. */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /** Returns the ratio of hits to lookups (0 if there were no lookups). */
+    public double getHitRatio() {
+        long lookups = hits + misses;
+        return (lookups == 0) ? 0 : (double) hits / lookups;
+    }
+
+    /** Resets the counters of hits, misses and evictions (the cache is kept). */
+    public void resetCounters() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    // Returns the estimated heap bytes of a cached context with the given number of successors
+    static long entryBytes(int windowLength, int size) {
+        return ENTRY_OVERHEAD + 2L * windowLength + 10L * size;
+    }
+
+    // Returns the slot of the given window in the cache, loading it from the cold tier on a miss,
+    // or -1 if the window is not in the model. A window that does not fit in the budget is not cached,
+    // and gets the slot -2 - record.
+    private long lookup(String window) {
+        Integer slot = slotOf.get(window);
+        if (slot != null) {
+            hits++;
+            if (references[slot] < MAX_REFERENCES) references[slot]++;
+            return slot;
+        }
+        misses++;
+        long record = snapshot.find(window, 0);
+        if (record == -1) return -1;
+        int n = snapshot.sizeAt(record);
+        long bytes = entryBytes(windowLength, n);
+        if (bytes > heapBudget) return -2 - record;
+        while (heapBytes + bytes > heapBudget) {
+            evict();
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            successors = Arrays.copyOf(successors, size * 2);
+            cps = Arrays.copyOf(cps, size * 2);
+            references = Arrays.copyOf(references, size * 2);
+        }
+        int s = size++;
+        keys[s] = window;
+        successors[s] = new char[n];
+        cps[s] = new double[n];
+        fill(record, successors[s], cps[s]);
+        references[s] = 0;
+        slotOf.put(window, s);
+        heapBytes += bytes;
+        return s;
+    }
+
+    // Decodes the successors of the given record, and their cumulative probabilities,
+    // accumulated like LanguageModel.getRandomChar accumulates them
+    private void fill(long record, char[] chars, double[] cp) {
+        int total = snapshot.totalAt(record);
+        double cumulativeProb = 0;
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = snapshot.charAt(record, i);
+            cumulativeProb += (double) snapshot.countAt(record, i) / total;
+            cp[i] = cumulativeProb;
+        }
+    }
+
+    // Evicts one context: sweeps the clock hand over the slots, lowering their reference counts,
+    // until it finds a slot whose count is 0. The last slot is moved into the freed one.
+    private void evict() {
+        while (references[hand] > 0) {
+            references[hand]--;
+            hand = (hand + 1 == size) ? 0 : hand + 1;
+        }
+        int victim = hand;
+        slotOf.remove(keys[victim]);
+        heapBytes -= entryBytes(windowLength, successors[victim].length);
+        evictions++;
+        int last = --size;
+        if (victim != last) {
+            keys[victim] = keys[last];
+            successors[victim] = successors[last];
+            cps[victim] = cps[last];
+            references[victim] = references[last];
+            slotOf.put(keys[victim], victim);
+        }
+        keys[last] = null;
+        successors[last] = null;
+        cps[last] = null;
+        if (hand >= size) hand = 0;
+    }
+
+    // Returns the successor of the given slot that the given random number draws
+    private char draw(int slot, double r) {
+        double[] cp = cps[slot];
+        for (int i = 0; i < cp.length; i++) {
+            if (cp[i] > r) {
+                return successors[slot][i];
+            }
+        }
+        return successors[slot][cp.length - 1];
+    }
+
+    /**
+     * Generates a random text, based on the probabilities of the saved model.
+     * @param initialText - text to start with.
+     * @param textLength - the total length of the text to generate
+     * @return the generated text
+     */
+    public String generate(String initialText, int textLength) {
+        // If the length of the initial text provided is less than windowLength, terminate.
+        if (initialText.length() < windowLength) {
+            return initialText;
+        }
+        StringBuilder generatedText = new StringBuilder(initialText);
+        String window = initialText.substring(initialText.length() - windowLength);
+
+        // The process stops when the length of the generated text equals textLength.
+        while (generatedText.length() < textLength) {
+            long slot = lookup(window);
+
+            // If the current window is not found in the model, stop the process.
+            if (slot == -1) {
+                break;
+            }
+            double r = randomGenerator.nextDouble();
+            char nextChar = (slot >= 0) ? draw((int) slot, r) : snapshot.getRandomChar(-2 - slot, r);
+            generatedText.append(nextChar);
+            window = generatedText.substring(generatedText.length() - windowLength);
+        }
+        return generatedText.toString();
+    }
+
+    /** Returns a string with the state of the cache, and its counters. */
+    public String toString() {
+        return String.format("%d of %d contexts hot, %,d of %,d bytes, %d hits, %d misses (%.1f%% hits), %d evictions",
+                size, getSize(), heapBytes, heapBudget, hits, misses, 100 * getHitRatio(), evictions);
+    }
+}
@@ -0,0 +1,143 @@
+/** A window over the last characters of a text, updated in place one character at a time.
+ *  The window keeps a rolling hash that equals the hash code of the String holding the
+ *  same characters, so looking a window up never requires building that String.
+ *  Only windows that are seen for the first time need to be turned into Strings.
+ *  The window also keeps its last characters packed into longs, so that ContextTable can look up
+ *  any short suffix of the window (e.g. for models of several window lengths) in O(1). */
+public class WindowKey {
+
+    // The multiplier of String.hashCode()
+    static final int HASH_BASE = 31;
+
+    // The characters of the window, kept in a circular buffer
+    private final char[] chars;
+
+    // The index of the oldest character of the window in the buffer
+    private int start;
+
+    // The number of characters currently in the window
+    private int size;
+
+    // The hash code of the window
+    private int hash;
+
+    // HASH_BASE to the power of (capacity - 1), used to remove the oldest character from the hash
+    private final int highPower;
+
+    // The last 4 characters of the window, 16 bits each (the last character in the lowest bits)
+    private long packed16;
+
+    // The low bytes of the last 8 characters of the window (the last character in the lowest byte)
+    private long packed8;
+
+    // Bit i is set if the character that is i places before the end of the window is above 0xFF
+    private long wideChars;
+
+    /** Constructs an empty window that holds at most the given number of characters. */
+    public WindowKey(int capacity) {
+        chars = new char[Math.max(capacity, 1)];
+        int power = 1;
+        for (int i = 1; i < capacity; i++) {
+            power *= HASH_BASE;
+        }
+        highPower = power;
+        clear();
+    }
+
+    /** Empties this window. */
+    public void clear() {
+        start = 0;
+        size = 0;
+        hash = 0;
+        packed16 = 0;
+        packed8 = 0;
+        wideChars = 0;
+    }
+
+    /** Adds the given character to the end of this window.
+     *  If the window is full, its first character is removed. */
+    public void add(char c) {
+        if (size < chars.length) {
+            chars[index(size)] = c;
+            size++;
+            hash = hash * HASH_BASE + c;
+        } else {
+            hash = (hash - chars[start] * highPower) * HASH_BASE + c;
+            chars[start] = c;
+            start = index(1);
+        }
+        packed16 = (packed16 << 16) | c;
+        packed8 = (packed8 << 8) | (c & 0xFF);
+        wideChars = (wideChars << 1) | (c > 0xFF ? 1 : 0);
+    }
+
+    /** Returns the number of characters in this window. */
+    public int length() {
+        return size;
+    }
+
+    /** Returns true if this window holds as many characters as it can. */
+    public boolean isFull() {
+        return size == chars.length;
+    }
+
+    /** Returns the character at the given index of this window. */
+    public char charAt(int index) {
+        return chars[index(index)];
+    }
+
+    /** Returns the last length characters of this window (length is at most 4), packed 16 bits each. */
+    public long packed16(int length) {
+        return (length == 4) ? packed16 : packed16 & ((1L << (16 * length)) - 1);
+    }
+
+    /** Returns the low bytes of the last length characters of this window (length is at most 8). */
+    public long packed8(int length) {
+        return (length == 8) ? packed8 : packed8 & ((1L << (8 * length)) - 1);
+    }
+
+    /** Checks if all the last length characters of this window (length is at most 64) are in 0-255. */
+    public boolean isNarrow(int length) {
+        return (length == 64) ? wideChars == 0 : (wideChars & ((1L << length) - 1)) == 0;
+    }
+
+    /** Returns the hash code of the last length characters of this window,
+     *  which is the hash code of the String holding them. */
+    public int hashCode(int length) {
+        if (length == size) return hash;
+        int h = 0;
+        for (int i = size - length; i < size; i++) {
+            h = h * HASH_BASE + charAt(i);
+        }
+        return h;
+    }
+
+    /** Checks if this window holds the same characters as the given string. */
+    public boolean matches(String str) {
+        if (str.length() != size) return false;
+        for (int i = 0; i < size; i++) {
+            if (str.charAt(i) != charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /** Returns the hash code of this window, which is the hash code of toString(). */
+    public int hashCode() {
+        return hash;
+    }
+
+    // Maps an index of this window to an index of the circular buffer
+    private int index(int i) {
+        int j = start + i;
+        return (j >= chars.length) ? j - chars.length : j;
+    }
+
+    /** Returns a new string holding the characters of this window. */
+    public String toString() {
+        char[] str = new char[size];
+        for (int i = 0; i < size; i++) {
+            str[i] = charAt(i);
+        }
+        return new String(str);
+    }
+}
@@ -0,0 +1,67 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** The time to learn all the window lengths 1..maxWindowLength of a corpus: in a single pass, with
+ *  a BackoffLanguageModel (and its ContextTrie), and with one separate model per window length,
+ *  CompactLanguageModel or LanguageModel, as a backoff had to be trained before. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BackoffTrainBenchmark {
+
+    private static final MethodHandle NEW_BACKOFF = Project.constructor("BackoffLanguageModel", int.class);
+    private static final MethodHandle BACKOFF_TRAIN = Project.method("BackoffLanguageModel", "train", void.class, String.class);
+    private static final MethodHandle NEW_COMPACT = Project.constructor("CompactLanguageModel", int.class);
+    private static final MethodHandle COMPACT_TRAIN = Project.method("CompactLanguageModel", "train", void.class, String.class);
+    private static final MethodHandle NEW_MODEL = Project.constructor("LanguageModel", int.class);
+    private static final MethodHandle TRAIN = Project.method("LanguageModel", "train", void.class, String.class);
+
+    @Param({"shakespeareinlove.txt", "originofspecies.txt"})
+    public String corpus;
+
+    @Param({"3", "7"})
+    public int maxWindowLength;
+
+    @Benchmark
+    public Object backoff() throws Throwable {
+        Object model = NEW_BACKOFF.invoke(maxWindowLength);
+        BACKOFF_TRAIN.invoke(model, corpus);
+        return model;
+    }
+
+    @Benchmark
+    public Object separateCompact() throws Throwable {
+        Object[] models = new Object[maxWindowLength];
+        for (int w = 1; w <= maxWindowLength; w++) {
+            models[w - 1] = NEW_COMPACT.invoke(w);
+            COMPACT_TRAIN.invoke(models[w - 1], corpus);
+        }
+        return models;
+    }
+
+    @Benchmark
+    public Object separateLanguageModel() throws Throwable {
+        Object[] models = new Object[maxWindowLength];
+        for (int w = 1; w <= maxWindowLength; w++) {
+            models[w - 1] = NEW_MODEL.invoke(w);
+            TRAIN.invoke(models[w - 1], corpus);
+        }
+        return models;
+    }
+}
@@ -0,0 +1,28 @@
+package benchmarks;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** Runs the benchmarks with the GC profiler, which adds the allocation rate (gc.alloc.rate, and
+ *  gc.alloc.rate.norm in bytes per operation) and the GC counts to the results of every benchmark.
+ *  Usage: java -jar benchmarks.jar [JMH options] [regexp...], from the directory of the corpora.
+ *  With no regular expression, runs all the benchmarks; otherwise, those whose names match any
+ *  of them. The JMH options (e.g. -f 1 -wi 1 -i 2, or -p corpus=shakespeareinlove.txt) override
+ *  the annotations of the benchmarks. */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp()) {
+            commandLine.showHelp();
+            return;
+        }
+        new Runner(new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class).build()).run();
+    }
+}
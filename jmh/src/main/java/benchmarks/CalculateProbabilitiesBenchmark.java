@@ -0,0 +1,50 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** The cost of calculateProbabilities of a List, by list size.
+ *  Calculating the probabilities again gives the same values, so the lists are built once. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CalculateProbabilitiesBenchmark {
+
+    private static final Class<?> LIST = Project.type("List");
+    private static final MethodHandle NEW_MODEL = Project.constructor("LanguageModel", int.class, int.class);
+    private static final MethodHandle CALCULATE_LIST = Project.method("LanguageModel", "calculateProbabilities", void.class, LIST);
+
+    @Param({"1", "4", "16", "64", "256"})
+    public int size;
+
+    private Object model;
+    private Object list;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        model = NEW_MODEL.invoke(1, 20);
+        list = Project.list(size);
+    }
+
+    @Benchmark
+    public Object list() throws Throwable {
+        CALCULATE_LIST.invoke(model, list);
+        return list;
+    }
+}
@@ -0,0 +1,22 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Counts the characters that a benchmark processes, so that JMH reports a throughput in
+ *  characters per time unit next to the throughput in operations. */
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+public class Chars {
+
+    /** The number of characters processed in the current iteration. */
+    public long chars;
+
+    @Setup(Level.Iteration)
+    public void clear() {
+        chars = 0;
+    }
+}
@@ -0,0 +1,85 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.random.RandomGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** The throughput of generating texts of 10,000 characters, in characters per second (the "chars"
+ *  counter), with a LanguageModel, a CompactLanguageModel and a CompiledModel of window length 7.
+ *  Generation starts with the first window of the corpus, which is always in the model. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GenerateBenchmark {
+
+    // The length of the generated texts, and the window length of the models
+    private static final int TEXT_LENGTH = 10000;
+    private static final int WINDOW_LENGTH = 7;
+
+    private static final MethodHandle NEW_MODEL = Project.constructor("LanguageModel", int.class, int.class);
+    private static final MethodHandle TRAIN = Project.method("LanguageModel", "train", void.class, String.class);
+    private static final MethodHandle GENERATE = Project.method("LanguageModel", "generate", String.class, String.class, int.class);
+    private static final MethodHandle NEW_COMPACT = Project.constructor("CompactLanguageModel", int.class, int.class);
+    private static final MethodHandle COMPACT_TRAIN = Project.method("CompactLanguageModel", "train", void.class, String.class);
+    private static final MethodHandle COMPACT_GENERATE = Project.method("CompactLanguageModel", "generate", String.class, String.class, int.class);
+    private static final MethodHandle FREEZE = Project.method("CompactLanguageModel", "freeze", Project.type("CompiledModel"));
+    private static final MethodHandle COMPILED_GENERATE = Project.method("CompiledModel", "generate", String.class, String.class, int.class, RandomGenerator.class);
+
+    @Param({"shakespeareinlove.txt", "originofspecies.txt"})
+    public String corpus;
+
+    private String initialText;
+    private Object model;
+    private Object compact;
+    private Object compiled;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        initialText = Project.corpusStart(corpus, WINDOW_LENGTH);
+        model = NEW_MODEL.invoke(initialText.length(), 20);
+        TRAIN.invoke(model, corpus);
+        compact = NEW_COMPACT.invoke(initialText.length(), 20);
+        COMPACT_TRAIN.invoke(compact, corpus);
+        compiled = FREEZE.invoke(compact);
+        random = new Random(20);
+    }
+
+    @Benchmark
+    public String languageModel(Chars counter) throws Throwable {
+        String text = (String) GENERATE.invoke(model, initialText, TEXT_LENGTH);
+        counter.chars += text.length();
+        return text;
+    }
+
+    @Benchmark
+    public String compactLanguageModel(Chars counter) throws Throwable {
+        String text = (String) COMPACT_GENERATE.invoke(compact, initialText, TEXT_LENGTH);
+        counter.chars += text.length();
+        return text;
+    }
+
+    @Benchmark
+    public String compiledModel(Chars counter) throws Throwable {
+        String text = (String) COMPILED_GENERATE.invoke(compiled, initialText, TEXT_LENGTH, (RandomGenerator) random);
+        counter.chars += text.length();
+        return text;
+    }
+}
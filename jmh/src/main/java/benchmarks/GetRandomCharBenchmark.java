@@ -0,0 +1,75 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** The latency of drawing a character by context fan-out: getRandomChar of a List, the same draw
+ *  over a range of counts (as CompactLanguageModel draws), and the alias table of the same distribution. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GetRandomCharBenchmark {
+
+    private static final Class<?> LIST = Project.type("List");
+    private static final MethodHandle NEW_MODEL = Project.constructor("LanguageModel", int.class, int.class);
+    private static final MethodHandle CALCULATE_LIST = Project.method("LanguageModel", "calculateProbabilities", void.class, LIST);
+    private static final MethodHandle RANDOM_CHAR_LIST = Project.method("LanguageModel", "getRandomChar", char.class, LIST);
+    private static final MethodHandle INDEX_OF_CUMULATIVE = Project.staticMethod("LanguageModel", "indexOfCumulative",
+            int.class, int[].class, int.class, int.class, int.class, double.class);
+    private static final MethodHandle NEW_ALIAS_TABLE = Project.constructor("AliasTable",
+            char[].class, int[].class, int.class, int.class);
+    private static final MethodHandle ALIAS_SAMPLE = Project.method("AliasTable", "sample", char.class, double.class);
+
+    @Param({"1", "4", "16", "64", "256"})
+    public int fanOut;
+
+    private Object model;
+    private Object list;
+    private int[] counts;
+    private int total;
+    private Object alias;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        model = NEW_MODEL.invoke(1, 20);
+        list = Project.list(fanOut);
+        CALCULATE_LIST.invoke(model, list);
+        counts = Project.counts(fanOut);
+        total = fanOut * (fanOut + 1) / 2;
+        alias = NEW_ALIAS_TABLE.invoke(Project.chars(fanOut), counts, 0, fanOut);
+        random = new Random(20);
+    }
+
+    @Benchmark
+    public char list() throws Throwable {
+        return (char) RANDOM_CHAR_LIST.invoke(model, list);
+    }
+
+    @Benchmark
+    public int counts() throws Throwable {
+        return (int) INDEX_OF_CUMULATIVE.invoke(counts, 0, fanOut, total, random.nextDouble());
+    }
+
+    @Benchmark
+    public char aliasTable() throws Throwable {
+        return (char) ALIAS_SAMPLE.invoke(alias, random.nextDouble());
+    }
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** The cost of indexOf and get of a List, by list size. Neither changes the list, so the
+ *  lists are built once (see ListUpdateBenchmark for update). */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListBenchmark {
+
+    private static final MethodHandle LIST_INDEX_OF = Project.method("List", "indexOf", int.class, char.class);
+    private static final MethodHandle LIST_GET = Project.method("List", "get", Project.type("CharData"), int.class);
+
+    // The character that was added first, which is the last one in the list
+    private static final char LAST = '!';
+
+    @Param({"1", "4", "16", "64", "256"})
+    public int size;
+
+    private Object list;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        list = Project.list(size);
+    }
+
+    @Benchmark
+    public int listIndexOfLast() throws Throwable {
+        return (int) LIST_INDEX_OF.invoke(list, LAST);
+    }
+
+    @Benchmark
+    public Object listGetMiddle() throws Throwable {
+        return LIST_GET.invoke(list, size / 2);
+    }
+}
@@ -0,0 +1,52 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** The cost of update of a List, by list size, for the character that was added first (the
+ *  last one in the list). Updating changes the list, so every invocation gets a fresh list,
+ *  built outside of the measured time. JMH reads the clock around each invocation then, so the
+ *  results include its cost, which matters at the smallest sizes; compare the sizes with each
+ *  other, rather than with ListBenchmark. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListUpdateBenchmark {
+
+    private static final MethodHandle LIST_UPDATE = Project.method("List", "update", void.class, char.class);
+
+    // The character that was added first, which is the last one in the list
+    private static final char LAST = '!';
+
+    @Param({"1", "4", "16", "64", "256"})
+    public int size;
+
+    private Object list;
+
+    @Setup(Level.Invocation)
+    public void setUp() throws Throwable {
+        list = Project.list(size);
+    }
+
+    @Benchmark
+    public Object listUpdateLast() throws Throwable {
+        LIST_UPDATE.invoke(list, LAST);
+        return list;
+    }
+}
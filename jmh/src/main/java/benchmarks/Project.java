@@ -0,0 +1,124 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/** Binds the benchmarks to the classes of the project. The classes of the project are in the
+ *  unnamed package, which a named package cannot import, and JMH does not accept benchmarks in
+ *  the unnamed package. So the benchmarks call the project through method handles. A benchmark
+ *  keeps its handles in static final fields, where the JIT treats them as constants and inlines
+ *  the calls, so the handles add no cost to what is measured. */
+final class Project {
+
+    // The handles that build the lists and read the corpora
+    private static final MethodHandle NEW_LIST = constructor("List");
+    private static final MethodHandle LIST_UPDATE = method("List", "update", void.class, char.class);
+    private static final MethodHandle NEW_CORPUS_READER = constructor("CorpusReader", String.class);
+    private static final MethodHandle CORPUS_READER_READ = method("CorpusReader", "read", int.class, char[].class);
+    private static final MethodHandle CORPUS_READER_CLOSE = method("CorpusReader", "close", void.class);
+
+    // The size of the buffers that the corpora are read with (as LanguageModel.BUFFER_SIZE)
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private Project() {
+    }
+
+    /** Returns the class of the project with the given name. */
+    static Class<?> type(String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Could not find the class " + className, e);
+        }
+    }
+
+    /** Returns a handle of the constructor of the given class with the given parameter types. */
+    static MethodHandle constructor(String className, Class<?>... parameterTypes) {
+        Class<?> type = type(className);
+        try {
+            return lookup(type).findConstructor(type, MethodType.methodType(void.class, parameterTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not find a constructor of " + className, e);
+        }
+    }
+
+    /** Returns a handle of the given instance method of the given class. The method may be
+     *  package-private, like the helpers of LanguageModel. */
+    static MethodHandle method(String className, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        Class<?> type = type(className);
+        try {
+            return lookup(type).findVirtual(type, name, MethodType.methodType(returnType, parameterTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not find the method " + className + "." + name, e);
+        }
+    }
+
+    /** Returns a handle of the given static method of the given class, which may be package-private. */
+    static MethodHandle staticMethod(String className, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        Class<?> type = type(className);
+        try {
+            return lookup(type).findStatic(type, name, MethodType.methodType(returnType, parameterTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not find the method " + className + "." + name, e);
+        }
+    }
+
+    // Returns a lookup with access to the package-private members of the given class. The project
+    // and the benchmarks are both in the unnamed module, so the lookup is always allowed.
+    private static MethodHandles.Lookup lookup(Class<?> type) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+    }
+
+    /** Returns a List of the given number of different characters, with counts 1, 2, 3, ...
+     *  The first character that was added, and so the last one in the list, is '!'. */
+    static Object list(int size) throws Throwable {
+        Object list = NEW_LIST.invoke();
+        for (int i = 0; i < size; i++) {
+            for (int k = 0; k <= i; k++) {
+                LIST_UPDATE.invoke(list, (char) ('!' + i));
+            }
+        }
+        return list;
+    }
+
+    /** Returns the characters of list(size), in list order. */
+    static char[] chars(int size) {
+        char[] chars = new char[size];
+        for (int j = 0; j < size; j++) {
+            chars[j] = (char) ('!' + size - 1 - j);
+        }
+        return chars;
+    }
+
+    /** Returns the counts of list(size), in list order. */
+    static int[] counts(int size) {
+        int[] counts = new int[size];
+        for (int j = 0; j < size; j++) {
+            counts[j] = size - j;
+        }
+        return counts;
+    }
+
+    /** Returns the number of characters that training reads from the given file. */
+    static long corpusLength(String fileName) throws Throwable {
+        char[] buffer = new char[BUFFER_SIZE];
+        Object reader = NEW_CORPUS_READER.invoke(fileName);
+        long length = 0;
+        int n;
+        while ((n = (int) CORPUS_READER_READ.invoke(reader, buffer)) > 0) {
+            length += n;
+        }
+        CORPUS_READER_CLOSE.invoke(reader);
+        return length;
+    }
+
+    /** Returns the first characters of the given file. */
+    static String corpusStart(String fileName, int length) throws Throwable {
+        char[] buffer = new char[BUFFER_SIZE];
+        Object reader = NEW_CORPUS_READER.invoke(fileName);
+        int n = (int) CORPUS_READER_READ.invoke(reader, buffer);
+        CORPUS_READER_CLOSE.invoke(reader);
+        return new String(buffer, 0, Math.min(n, length));
+    }
+}
@@ -0,0 +1,63 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** The throughput of training, in characters per second (the "chars" counter), on both corpora
+ *  and for window lengths 1-10: LanguageModel.train, and CompactLanguageModel.train to compare. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrainBenchmark {
+
+    private static final MethodHandle NEW_MODEL = Project.constructor("LanguageModel", int.class);
+    private static final MethodHandle TRAIN = Project.method("LanguageModel", "train", void.class, String.class);
+    private static final MethodHandle NEW_COMPACT = Project.constructor("CompactLanguageModel", int.class);
+    private static final MethodHandle COMPACT_TRAIN = Project.method("CompactLanguageModel", "train", void.class, String.class);
+
+    @Param({"shakespeareinlove.txt", "originofspecies.txt"})
+    public String corpus;
+
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8", "9", "10"})
+    public int windowLength;
+
+    // The number of characters that one training reads
+    private long corpusChars;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        corpusChars = Project.corpusLength(corpus);
+    }
+
+    @Benchmark
+    public Object train(Chars counter) throws Throwable {
+        Object model = NEW_MODEL.invoke(windowLength);
+        TRAIN.invoke(model, corpus);
+        counter.chars += corpusChars;
+        return model;
+    }
+
+    @Benchmark
+    public Object compactTrain(Chars counter) throws Throwable {
+        Object model = NEW_COMPACT.invoke(windowLength);
+        COMPACT_TRAIN.invoke(model, corpus);
+        counter.chars += corpusChars;
+        return model;
+    }
+}